@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2015 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.squareup.otto.benchmarks;
+
+import com.squareup.otto.ShardedBus;
+import com.squareup.otto.Subscribe;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures how delivery throughput of a {@link ShardedBus} scales with its number of shards. Each operation posts a
+ * burst of events to subscribers which each do a fixed amount of work per event, then waits for every delivery.
+ */
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ShardedBusBenchmark {
+  private static final int BURST = 1000;
+  private static final int SUBSCRIBER_COUNT = 16;
+
+  @Param({ "1", "2", "4", "8" })
+  int shardCount;
+
+  /** Work done by each handler call, in JMH's CPU tokens. */
+  @Param({ "100" })
+  long tokens;
+
+  private ShardedBus bus;
+
+  @Setup public void setUp() {
+    bus = new ShardedBus(shardCount);
+    for (int i = 0; i < SUBSCRIBER_COUNT; i++) {
+      bus.register(new WorkingSubscriber(tokens));
+    }
+  }
+
+  @TearDown public void tearDown() throws InterruptedException {
+    bus.shutdown();
+    bus.awaitTermination(1, TimeUnit.MINUTES);
+  }
+
+  @Benchmark public void postBurst() throws InterruptedException {
+    for (int i = 0; i < BURST; i++) {
+      bus.post(i);
+    }
+    if (!bus.awaitQuiescence(1, TimeUnit.MINUTES)) {
+      throw new AssertionError("Deliveries did not finish.");
+    }
+  }
+
+  public static final class WorkingSubscriber {
+    private final long tokens;
+
+    WorkingSubscriber(long tokens) {
+      this.tokens = tokens;
+    }
+
+    @Subscribe public void onInteger(Integer event) {
+      Blackhole.consumeCPU(tokens);
+    }
+  }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2015 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.squareup.otto.compiler;
+
+import com.squareup.otto.ThreadMode;
+import java.util.ArrayList;
+import java.util.List;
+
+/** Model of a generated {@code ListenerDispatcher}, and the code to write it out. */
+final class ListenerDispatcherClass {
+  private final List<String> subscriberNames = new ArrayList<String>();
+  private final List<String> subscriberTypes = new ArrayList<String>();
+  private final List<ThreadMode> subscriberThreadModes = new ArrayList<ThreadMode>();
+  private final List<Integer> subscriberPriorities = new ArrayList<Integer>();
+  private final List<String> producerNames = new ArrayList<String>();
+  private final List<String> producerTypes = new ArrayList<String>();
+  private final List<Boolean> producerPerHandler = new ArrayList<Boolean>();
+  private final List<Boolean> producerDeferred = new ArrayList<Boolean>();
+  private final String classPackage;
+  private final String className;
+  private final String targetType;
+  /** Whether this dispatcher calls every annotated method of its class, and so can also index them. */
+  private boolean indexed = true;
+
+  ListenerDispatcherClass(String classPackage, String className, String targetType) {
+    this.classPackage = classPackage;
+    this.className = className;
+    this.targetType = targetType;
+  }
+
+  void addSubscriber(String methodName, String eventType, ThreadMode threadMode, int priority) {
+    subscriberNames.add(methodName);
+    subscriberTypes.add(eventType);
+    subscriberThreadModes.add(threadMode);
+    subscriberPriorities.add(priority);
+  }
+
+  void addProducer(String methodName, String eventType, boolean perHandler, boolean deferred) {
+    producerNames.add(methodName);
+    producerTypes.add(eventType);
+    producerPerHandler.add(perHandler);
+    producerDeferred.add(deferred);
+  }
+
+  /** Leaves out the index, because the class has annotated methods which this dispatcher does not call. */
+  void excludeFromIndex() {
+    indexed = false;
+  }
+
+  String getFqcn() {
+    if (classPackage.length() == 0) {
+      return className;
+    }
+    return classPackage + "." + className;
+  }
+
+  String brewJava() {
+    StringBuilder builder = new StringBuilder();
+    builder.append("// Generated code from Otto. Do not modify!\n");
+    if (classPackage.length() > 0) {
+      builder.append("package ").append(classPackage).append(";\n\n");
+    }
+    builder.append("public final class ").append(className)
+        .append("<T extends ").append(targetType).append(">\n")
+        .append("    implements com.squareup.otto.ListenerDispatcher<T>");
+    if (indexed) {
+      builder.append(", com.squareup.otto.ListenerIndex");
+    }
+    builder.append(" {\n");
+    emitSubscriberIndex(builder);
+    builder.append('\n');
+    emitProducerIndex(builder);
+    builder.append('\n');
+    emitHandleEvent(builder);
+    builder.append('\n');
+    emitProduceEvent(builder);
+    if (indexed) {
+      builder.append('\n');
+      emitSubscribers(builder);
+      builder.append('\n');
+      emitProducers(builder);
+    }
+    builder.append("}\n");
+    return builder.toString();
+  }
+
+  private void emitSubscriberIndex(StringBuilder builder) {
+    builder.append("  @Override public int subscriberIndex(String methodName, Class<?> eventType) {\n");
+    for (int i = 0; i < subscriberNames.size(); i++) {
+      builder.append("    if (\"").append(subscriberNames.get(i)).append("\".equals(methodName) && eventType == ")
+          .append(subscriberTypes.get(i)).append(".class) {\n")
+          .append("      return ").append(i).append(";\n")
+          .append("    }\n");
+    }
+    builder.append("    return -1;\n")
+        .append("  }\n");
+  }
+
+  private void emitProducerIndex(StringBuilder builder) {
+    builder.append("  @Override public int producerIndex(String methodName) {\n");
+    for (int i = 0; i < producerNames.size(); i++) {
+      builder.append("    if (\"").append(producerNames.get(i)).append("\".equals(methodName)) {\n")
+          .append("      return ").append(i).append(";\n")
+          .append("    }\n");
+    }
+    builder.append("    return -1;\n")
+        .append("  }\n");
+  }
+
+  private void emitHandleEvent(StringBuilder builder) {
+    builder.append("  @Override public void handleEvent(T listener, int subscriber, Object event) throws Throwable {\n")
+        .append("    switch (subscriber) {\n");
+    for (int i = 0; i < subscriberNames.size(); i++) {
+      builder.append("      case ").append(i).append(":\n")
+          .append("        listener.").append(subscriberNames.get(i))
+          .append("((").append(subscriberTypes.get(i)).append(") event);\n")
+          .append("        return;\n");
+    }
+    builder.append("      default:\n")
+        .append("        throw new IllegalArgumentException(\"Unknown subscriber \" + subscriber);\n")
+        .append("    }\n")
+        .append("  }\n");
+  }
+
+  private void emitProduceEvent(StringBuilder builder) {
+    builder.append("  @Override public Object produceEvent(T listener, int producer) throws Throwable {\n")
+        .append("    switch (producer) {\n");
+    for (int i = 0; i < producerNames.size(); i++) {
+      builder.append("      case ").append(i).append(":\n")
+          .append("        return listener.").append(producerNames.get(i)).append("();\n");
+    }
+    builder.append("      default:\n")
+        .append("        throw new IllegalArgumentException(\"Unknown producer \" + producer);\n")
+        .append("    }\n")
+        .append("  }\n");
+  }
+
+  private void emitSubscribers(StringBuilder builder) {
+    builder.append("  @Override public com.squareup.otto.ListenerIndex.Subscriber[] subscribers() {\n")
+        .append("    return new com.squareup.otto.ListenerIndex.Subscriber[] {\n");
+    for (int i = 0; i < subscriberNames.size(); i++) {
+      builder.append("        new com.squareup.otto.ListenerIndex.Subscriber(\"").append(subscriberNames.get(i))
+          .append("\", ").append(subscriberTypes.get(i)).append(".class,\n")
+          .append("            com.squareup.otto.ThreadMode.").append(subscriberThreadModes.get(i).name())
+          .append(", ").append(subscriberPriorities.get(i)).append("),\n");
+    }
+    builder.append("    };\n")
+        .append("  }\n");
+  }
+
+  private void emitProducers(StringBuilder builder) {
+    builder.append("  @Override public com.squareup.otto.ListenerIndex.Producer[] producers() {\n")
+        .append("    return new com.squareup.otto.ListenerIndex.Producer[] {\n");
+    for (int i = 0; i < producerNames.size(); i++) {
+      builder.append("        new com.squareup.otto.ListenerIndex.Producer(\"").append(producerNames.get(i))
+          .append("\", ").append(producerTypes.get(i)).append(".class, ").append(producerPerHandler.get(i))
+          .append(", ").append(producerDeferred.get(i)).append("),\n");
+    }
+    builder.append("    };\n")
+        .append("  }\n");
+  }
+}
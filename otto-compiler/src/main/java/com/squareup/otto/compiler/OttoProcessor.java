@@ -0,0 +1,294 @@
+/*
+ * Copyright (C) 2015 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.squareup.otto.compiler;
+
+import com.squareup.otto.ListenerDispatcher;
+import com.squareup.otto.Produce;
+import com.squareup.otto.Subscribe;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.Filer;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+/**
+ * Generates a {@link ListenerDispatcher} for every class which declares {@link Subscribe} or {@link Produce} methods.
+ *
+ * <p>Methods with a signature or visibility which the {@code Bus} would reject at registration are reported as
+ * errors. Methods which the generated code cannot call directly (static, or accepting a primitive) are left out of the
+ * dispatcher, and the {@code Bus} reaches them through reflection as before. Classes which cannot be referenced from
+ * their own package, such as private nested classes, are skipped entirely.
+ *
+ * <p>When a dispatcher can call every annotated method of its class, it also implements
+ * {@link com.squareup.otto.ListenerIndex}, so that the class is never scanned at runtime.
+ */
+public final class OttoProcessor extends AbstractProcessor {
+  private Elements elementUtils;
+  private Types typeUtils;
+  private Filer filer;
+
+  @Override public synchronized void init(ProcessingEnvironment env) {
+    super.init(env);
+    elementUtils = env.getElementUtils();
+    typeUtils = env.getTypeUtils();
+    filer = env.getFiler();
+  }
+
+  @Override public Set<String> getSupportedAnnotationTypes() {
+    Set<String> types = new LinkedHashSet<String>();
+    types.add(Subscribe.class.getCanonicalName());
+    types.add(Produce.class.getCanonicalName());
+    return types;
+  }
+
+  @Override public SourceVersion getSupportedSourceVersion() {
+    return SourceVersion.latestSupported();
+  }
+
+  @Override public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment env) {
+    Map<TypeElement, ListenerDispatcherClass> targetClassMap = findTargetClasses(env);
+
+    for (Map.Entry<TypeElement, ListenerDispatcherClass> entry : targetClassMap.entrySet()) {
+      TypeElement typeElement = entry.getKey();
+      ListenerDispatcherClass dispatcherClass = entry.getValue();
+
+      try {
+        JavaFileObject jfo = filer.createSourceFile(dispatcherClass.getFqcn(), typeElement);
+        Writer writer = jfo.openWriter();
+        try {
+          writer.write(dispatcherClass.brewJava());
+        } finally {
+          writer.close();
+        }
+      } catch (IOException e) {
+        error(typeElement, "Unable to write dispatcher for type %s: %s", typeElement, e.getMessage());
+      }
+    }
+
+    return false;
+  }
+
+  private Map<TypeElement, ListenerDispatcherClass> findTargetClasses(RoundEnvironment env) {
+    Map<TypeElement, ListenerDispatcherClass> targetClassMap =
+        new LinkedHashMap<TypeElement, ListenerDispatcherClass>();
+    // Classes with an annotated method which their dispatcher cannot call, and which must therefore be scanned.
+    Set<Element> unindexed = new HashSet<Element>();
+
+    for (Element element : env.getElementsAnnotatedWith(Subscribe.class)) {
+      if (element.getKind() != ElementKind.METHOD) {
+        continue;
+      }
+      ExecutableElement method = (ExecutableElement) element;
+      List<? extends VariableElement> parameters = method.getParameters();
+      if (parameters.size() != 1) {
+        error(method, "Method %s has @Subscribe annotation but requires %d arguments. "
+            + "Methods must require a single argument.", method, parameters.size());
+        continue;
+      }
+      if (!method.getModifiers().contains(Modifier.PUBLIC)) {
+        error(method, "Method %s has @Subscribe annotation but is not 'public'.", method);
+        continue;
+      }
+      TypeMirror eventType = typeUtils.erasure(parameters.get(0).asType());
+      if (!isDispatchable(method) || eventType.getKind().isPrimitive()) {
+        unindexed.add(method.getEnclosingElement());
+        continue;
+      }
+      Subscribe subscribe = method.getAnnotation(Subscribe.class);
+      getOrCreateTargetClass(targetClassMap, (TypeElement) method.getEnclosingElement())
+          .addSubscriber(method.getSimpleName().toString(), eventType.toString(), subscribe.threadMode(),
+              subscribe.priority());
+    }
+
+    Map<Element, Set<String>> producedTypes = new HashMap<Element, Set<String>>();
+    for (Element element : env.getElementsAnnotatedWith(Produce.class)) {
+      if (element.getKind() != ElementKind.METHOD) {
+        continue;
+      }
+      ExecutableElement method = (ExecutableElement) element;
+      TypeMirror eventType = checkProducer(method);
+      if (eventType == null) {
+        continue;
+      }
+      Set<String> produced = producedTypes.get(method.getEnclosingElement());
+      if (produced == null) {
+        produced = new HashSet<String>();
+        producedTypes.put(method.getEnclosingElement(), produced);
+      }
+      if (!produced.add(eventType.toString())) {
+        error(method, "Producer for type %s has already been registered.", eventType);
+        continue;
+      }
+      if (!isDispatchable(method) || eventType.getKind().isPrimitive()) {
+        unindexed.add(method.getEnclosingElement());
+        continue;
+      }
+      getOrCreateTargetClass(targetClassMap, (TypeElement) method.getEnclosingElement())
+          .addProducer(method.getSimpleName().toString(), eventType.toString(),
+              method.getAnnotation(Produce.class).perHandler(), isDeferred(method.getReturnType()));
+    }
+
+    for (Map.Entry<TypeElement, ListenerDispatcherClass> entry : targetClassMap.entrySet()) {
+      if (unindexed.contains(entry.getKey())) {
+        entry.getValue().excludeFromIndex();
+      }
+    }
+    return targetClassMap;
+  }
+
+  /**
+   * Reports an error and returns null if the {@code Bus} would reject {@code method} as a producer. Otherwise returns
+   * the erased type of event it produces: its return type, or the type argument of a {@code Future} or
+   * {@code Callable} return type.
+   */
+  private TypeMirror checkProducer(ExecutableElement method) {
+    if (!method.getParameters().isEmpty()) {
+      error(method, "Method %s has @Produce annotation but requires %d arguments. "
+          + "Methods must require zero arguments.", method, method.getParameters().size());
+      return null;
+    }
+    if (!method.getModifiers().contains(Modifier.PUBLIC)) {
+      error(method, "Method %s has @Produce annotation but is not 'public'.", method);
+      return null;
+    }
+    TypeMirror returnType = method.getReturnType();
+    if (returnType.getKind() == TypeKind.VOID) {
+      error(method, "Method %s has @Produce annotation but has no return type.", method);
+      return null;
+    }
+    TypeMirror eventType = returnType;
+    if (isDeferred(returnType)) {
+      List<? extends TypeMirror> arguments = ((DeclaredType) returnType).getTypeArguments();
+      TypeKind argumentKind = arguments.size() == 1 ? arguments.get(0).getKind() : TypeKind.NONE;
+      if (argumentKind != TypeKind.DECLARED && argumentKind != TypeKind.ARRAY) {
+        error(method, "Method %s has @Produce annotation but its return type %s does not name the event type. "
+            + "Must declare a type such as Future<Event>.", method, returnType);
+        return null;
+      }
+      eventType = arguments.get(0);
+    }
+    eventType = typeUtils.erasure(eventType);
+    if (Void.class.getCanonicalName().equals(eventType.toString())) {
+      error(method, "Method %s has a return type of void. Must declare a non-void type.", method);
+      return null;
+    }
+    Element eventElement = typeUtils.asElement(eventType);
+    if (eventElement != null && eventElement.getKind().isInterface()) {
+      error(method, "Method %s has @Produce annotation on %s which is an interface. "
+          + "Producers must return a concrete class type.", method, eventType);
+      return null;
+    }
+    return eventType;
+  }
+
+  /** Returns true if {@code type} is a {@code Future} or {@code Callable}, whose event the {@code Bus} resolves. */
+  private boolean isDeferred(TypeMirror type) {
+    if (type.getKind() != TypeKind.DECLARED) {
+      return false;
+    }
+    TypeMirror erased = typeUtils.erasure(type);
+    return isAssignable(erased, Future.class) || isAssignable(erased, Callable.class);
+  }
+
+  private boolean isAssignable(TypeMirror type, Class<?> to) {
+    TypeElement toElement = elementUtils.getTypeElement(to.getCanonicalName());
+    return typeUtils.isAssignable(type, typeUtils.erasure(toElement.asType()));
+  }
+
+  /** Returns true if generated code in the same package as {@code element}'s class can call it directly. */
+  private boolean isDispatchable(Element element) {
+    if (element.getKind() != ElementKind.METHOD) {
+      return false;
+    }
+    Set<Modifier> modifiers = element.getModifiers();
+    if (!modifiers.contains(Modifier.PUBLIC)
+        || modifiers.contains(Modifier.STATIC)
+        || modifiers.contains(Modifier.ABSTRACT)) {
+      return false;
+    }
+    Element enclosing = element.getEnclosingElement();
+    if (enclosing.getKind() != ElementKind.CLASS && enclosing.getKind() != ElementKind.ENUM) {
+      return false;
+    }
+    while (enclosing.getKind().isClass() || enclosing.getKind().isInterface()) {
+      TypeElement type = (TypeElement) enclosing;
+      if (type.getModifiers().contains(Modifier.PRIVATE)
+          || type.getNestingKind() == NestingKind.LOCAL
+          || type.getNestingKind() == NestingKind.ANONYMOUS) {
+        return false;
+      }
+      enclosing = enclosing.getEnclosingElement();
+    }
+    return true;
+  }
+
+  private ListenerDispatcherClass getOrCreateTargetClass(Map<TypeElement, ListenerDispatcherClass> targetClassMap,
+      TypeElement enclosingElement) {
+    ListenerDispatcherClass dispatcherClass = targetClassMap.get(enclosingElement);
+    if (dispatcherClass == null) {
+      String targetType = typeUtils.erasure(enclosingElement.asType()).toString();
+      String classPackage = getPackageName(enclosingElement);
+      String className = getClassName(enclosingElement, classPackage) + ListenerDispatcher.SUFFIX;
+
+      dispatcherClass = new ListenerDispatcherClass(classPackage, className, targetType);
+      targetClassMap.put(enclosingElement, dispatcherClass);
+    }
+    return dispatcherClass;
+  }
+
+  private String getPackageName(TypeElement type) {
+    return elementUtils.getPackageOf(type).getQualifiedName().toString();
+  }
+
+  /** Returns the binary name of {@code type} without its package, e.g. {@code Outer$Inner}. */
+  private String getClassName(TypeElement type, String packageName) {
+    String binaryName = elementUtils.getBinaryName(type).toString();
+    if (packageName.length() == 0) {
+      return binaryName;
+    }
+    return binaryName.substring(packageName.length() + 1);
+  }
+
+  private void error(Element element, String message, Object... args) {
+    processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, String.format(message, args), element);
+  }
+}
@@ -0,0 +1,351 @@
+/*
+ * Copyright (C) 2015 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.squareup.otto.compiler;
+
+import com.google.common.base.Joiner;
+import com.google.testing.compile.JavaFileObjects;
+import javax.tools.JavaFileObject;
+import org.junit.Test;
+
+import static com.google.common.truth.Truth.assertAbout;
+import static com.google.testing.compile.JavaSourceSubjectFactory.javaSource;
+
+public class OttoProcessorTest {
+
+  @Test public void subscriberAndProducer() {
+    JavaFileObject source = JavaFileObjects.forSourceString("test.Test", Joiner.on('\n').join(
+        "package test;",
+        "import com.squareup.otto.Produce;",
+        "import com.squareup.otto.Subscribe;",
+        "public class Test {",
+        "  @Subscribe public void onString(String event) {}",
+        "  @Subscribe public void onStrings(String[] events) {}",
+        "  @Produce public Integer produceInteger() { return 1; }",
+        "}"));
+
+    JavaFileObject expected = JavaFileObjects.forSourceString("test.Test$$ListenerDispatcher", Joiner.on('\n').join(
+        "// Generated code from Otto. Do not modify!",
+        "package test;",
+        "",
+        "public final class Test$$ListenerDispatcher<T extends test.Test>",
+        "    implements com.squareup.otto.ListenerDispatcher<T>, com.squareup.otto.ListenerIndex {",
+        "  @Override public int subscriberIndex(String methodName, Class<?> eventType) {",
+        "    if (\"onString\".equals(methodName) && eventType == java.lang.String.class) {",
+        "      return 0;",
+        "    }",
+        "    if (\"onStrings\".equals(methodName) && eventType == java.lang.String[].class) {",
+        "      return 1;",
+        "    }",
+        "    return -1;",
+        "  }",
+        "",
+        "  @Override public int producerIndex(String methodName) {",
+        "    if (\"produceInteger\".equals(methodName)) {",
+        "      return 0;",
+        "    }",
+        "    return -1;",
+        "  }",
+        "",
+        "  @Override public void handleEvent(T listener, int subscriber, Object event) throws Throwable {",
+        "    switch (subscriber) {",
+        "      case 0:",
+        "        listener.onString((java.lang.String) event);",
+        "        return;",
+        "      case 1:",
+        "        listener.onStrings((java.lang.String[]) event);",
+        "        return;",
+        "      default:",
+        "        throw new IllegalArgumentException(\"Unknown subscriber \" + subscriber);",
+        "    }",
+        "  }",
+        "",
+        "  @Override public Object produceEvent(T listener, int producer) throws Throwable {",
+        "    switch (producer) {",
+        "      case 0:",
+        "        return listener.produceInteger();",
+        "      default:",
+        "        throw new IllegalArgumentException(\"Unknown producer \" + producer);",
+        "    }",
+        "  }",
+        "",
+        "  @Override public com.squareup.otto.ListenerIndex.Subscriber[] subscribers() {",
+        "    return new com.squareup.otto.ListenerIndex.Subscriber[] {",
+        "        new com.squareup.otto.ListenerIndex.Subscriber(\"onString\", java.lang.String.class,",
+        "            com.squareup.otto.ThreadMode.POSTING, 0),",
+        "        new com.squareup.otto.ListenerIndex.Subscriber(\"onStrings\", java.lang.String[].class,",
+        "            com.squareup.otto.ThreadMode.POSTING, 0),",
+        "    };",
+        "  }",
+        "",
+        "  @Override public com.squareup.otto.ListenerIndex.Producer[] producers() {",
+        "    return new com.squareup.otto.ListenerIndex.Producer[] {",
+        "        new com.squareup.otto.ListenerIndex.Producer(\"produceInteger\", java.lang.Integer.class, false, false),",
+        "    };",
+        "  }",
+        "}"));
+
+    assertAbout(javaSource()).that(source)
+        .processedWith(new OttoProcessor())
+        .compilesWithoutError()
+        .and()
+        .generatesSources(expected);
+  }
+
+  @Test public void nestedGenericClassUsesBinaryName() {
+    JavaFileObject source = JavaFileObjects.forSourceString("test.Outer", Joiner.on('\n').join(
+        "package test;",
+        "import com.squareup.otto.Subscribe;",
+        "public class Outer {",
+        "  static class Inner<E> {",
+        "    @Subscribe public void onEvent(E event) {}",
+        "  }",
+        "}"));
+
+    JavaFileObject expected = JavaFileObjects.forSourceString("test.Outer$Inner$$ListenerDispatcher",
+        Joiner.on('\n').join(
+            "// Generated code from Otto. Do not modify!",
+            "package test;",
+            "",
+            "public final class Outer$Inner$$ListenerDispatcher<T extends test.Outer.Inner>",
+            "    implements com.squareup.otto.ListenerDispatcher<T>, com.squareup.otto.ListenerIndex {",
+            "  @Override public int subscriberIndex(String methodName, Class<?> eventType) {",
+            "    if (\"onEvent\".equals(methodName) && eventType == java.lang.Object.class) {",
+            "      return 0;",
+            "    }",
+            "    return -1;",
+            "  }",
+            "",
+            "  @Override public int producerIndex(String methodName) {",
+            "    return -1;",
+            "  }",
+            "",
+            "  @Override public void handleEvent(T listener, int subscriber, Object event) throws Throwable {",
+            "    switch (subscriber) {",
+            "      case 0:",
+            "        listener.onEvent((java.lang.Object) event);",
+            "        return;",
+            "      default:",
+            "        throw new IllegalArgumentException(\"Unknown subscriber \" + subscriber);",
+            "    }",
+            "  }",
+            "",
+            "  @Override public Object produceEvent(T listener, int producer) throws Throwable {",
+            "    switch (producer) {",
+            "      default:",
+            "        throw new IllegalArgumentException(\"Unknown producer \" + producer);",
+            "    }",
+            "  }",
+            "",
+            "  @Override public com.squareup.otto.ListenerIndex.Subscriber[] subscribers() {",
+            "    return new com.squareup.otto.ListenerIndex.Subscriber[] {",
+            "        new com.squareup.otto.ListenerIndex.Subscriber(\"onEvent\", java.lang.Object.class,",
+            "            com.squareup.otto.ThreadMode.POSTING, 0),",
+            "    };",
+            "  }",
+            "",
+            "  @Override public com.squareup.otto.ListenerIndex.Producer[] producers() {",
+            "    return new com.squareup.otto.ListenerIndex.Producer[] {",
+            "    };",
+            "  }",
+            "}"));
+
+    assertAbout(javaSource()).that(source)
+        .processedWith(new OttoProcessor())
+        .compilesWithoutError()
+        .and()
+        .generatesSources(expected);
+  }
+
+  @Test public void methodsWhichCannotBeCalledDirectlyAreLeftToReflection() {
+    JavaFileObject source = JavaFileObjects.forSourceString("test.Test", Joiner.on('\n').join(
+        "package test;",
+        "import com.squareup.otto.Produce;",
+        "import com.squareup.otto.Subscribe;",
+        "public class Test {",
+        "  @Subscribe public void onString(String event) {}",
+        "  @Subscribe public void primitive(int event) {}",
+        "  @Subscribe public static void onStatic(Integer event) {}",
+        "  @Produce public int producePrimitive() { return 1; }",
+        "  private static class Hidden {",
+        "    @Subscribe public void onString(String event) {}",
+        "  }",
+        "}"));
+
+    JavaFileObject expected = JavaFileObjects.forSourceString("test.Test$$ListenerDispatcher", Joiner.on('\n').join(
+        "// Generated code from Otto. Do not modify!",
+        "package test;",
+        "",
+        "public final class Test$$ListenerDispatcher<T extends test.Test>",
+        "    implements com.squareup.otto.ListenerDispatcher<T> {",
+        "  @Override public int subscriberIndex(String methodName, Class<?> eventType) {",
+        "    if (\"onString\".equals(methodName) && eventType == java.lang.String.class) {",
+        "      return 0;",
+        "    }",
+        "    return -1;",
+        "  }",
+        "",
+        "  @Override public int producerIndex(String methodName) {",
+        "    return -1;",
+        "  }",
+        "",
+        "  @Override public void handleEvent(T listener, int subscriber, Object event) throws Throwable {",
+        "    switch (subscriber) {",
+        "      case 0:",
+        "        listener.onString((java.lang.String) event);",
+        "        return;",
+        "      default:",
+        "        throw new IllegalArgumentException(\"Unknown subscriber \" + subscriber);",
+        "    }",
+        "  }",
+        "",
+        "  @Override public Object produceEvent(T listener, int producer) throws Throwable {",
+        "    switch (producer) {",
+        "      default:",
+        "        throw new IllegalArgumentException(\"Unknown producer \" + producer);",
+        "    }",
+        "  }",
+        "}"));
+
+    assertAbout(javaSource()).that(source)
+        .processedWith(new OttoProcessor())
+        .compilesWithoutError()
+        .and()
+        .generatesSources(expected);
+  }
+
+  @Test public void indexRecordsAnnotationValuesAndDeferredProducerType() {
+    JavaFileObject source = JavaFileObjects.forSourceString("test.Test", Joiner.on('\n').join(
+        "package test;",
+        "import com.squareup.otto.Produce;",
+        "import com.squareup.otto.Subscribe;",
+        "import com.squareup.otto.ThreadMode;",
+        "import java.util.concurrent.Future;",
+        "public class Test {",
+        "  @Subscribe(threadMode = ThreadMode.BACKGROUND, priority = -2) public void onString(String event) {}",
+        "  @Produce(perHandler = true) public Future<Long> produceLong() { return null; }",
+        "}"));
+
+    JavaFileObject expected = JavaFileObjects.forSourceString("test.Test$$ListenerDispatcher", Joiner.on('\n').join(
+        "// Generated code from Otto. Do not modify!",
+        "package test;",
+        "",
+        "public final class Test$$ListenerDispatcher<T extends test.Test>",
+        "    implements com.squareup.otto.ListenerDispatcher<T>, com.squareup.otto.ListenerIndex {",
+        "  @Override public int subscriberIndex(String methodName, Class<?> eventType) {",
+        "    if (\"onString\".equals(methodName) && eventType == java.lang.String.class) {",
+        "      return 0;",
+        "    }",
+        "    return -1;",
+        "  }",
+        "",
+        "  @Override public int producerIndex(String methodName) {",
+        "    if (\"produceLong\".equals(methodName)) {",
+        "      return 0;",
+        "    }",
+        "    return -1;",
+        "  }",
+        "",
+        "  @Override public void handleEvent(T listener, int subscriber, Object event) throws Throwable {",
+        "    switch (subscriber) {",
+        "      case 0:",
+        "        listener.onString((java.lang.String) event);",
+        "        return;",
+        "      default:",
+        "        throw new IllegalArgumentException(\"Unknown subscriber \" + subscriber);",
+        "    }",
+        "  }",
+        "",
+        "  @Override public Object produceEvent(T listener, int producer) throws Throwable {",
+        "    switch (producer) {",
+        "      case 0:",
+        "        return listener.produceLong();",
+        "      default:",
+        "        throw new IllegalArgumentException(\"Unknown producer \" + producer);",
+        "    }",
+        "  }",
+        "",
+        "  @Override public com.squareup.otto.ListenerIndex.Subscriber[] subscribers() {",
+        "    return new com.squareup.otto.ListenerIndex.Subscriber[] {",
+        "        new com.squareup.otto.ListenerIndex.Subscriber(\"onString\", java.lang.String.class,",
+        "            com.squareup.otto.ThreadMode.BACKGROUND, -2),",
+        "    };",
+        "  }",
+        "",
+        "  @Override public com.squareup.otto.ListenerIndex.Producer[] producers() {",
+        "    return new com.squareup.otto.ListenerIndex.Producer[] {",
+        "        new com.squareup.otto.ListenerIndex.Producer(\"produceLong\", java.lang.Long.class, true, true),",
+        "    };",
+        "  }",
+        "}"));
+
+    assertAbout(javaSource()).that(source)
+        .processedWith(new OttoProcessor())
+        .compilesWithoutError()
+        .and()
+        .generatesSources(expected);
+  }
+
+  @Test public void nonPublicSubscriberFailsToCompile() {
+    assertFailsToCompile("@Subscribe void onString(String event) {}",
+        "Method onString(java.lang.String) has @Subscribe annotation but is not 'public'.");
+  }
+
+  @Test public void subscriberWithTwoArgumentsFailsToCompile() {
+    assertFailsToCompile("@Subscribe public void onStrings(String first, String second) {}",
+        "has @Subscribe annotation but requires 2 arguments.");
+  }
+
+  @Test public void producerWithArgumentsFailsToCompile() {
+    assertFailsToCompile("@Produce public String produce(String argument) { return argument; }",
+        "has @Produce annotation but requires 1 arguments.");
+  }
+
+  @Test public void voidProducerFailsToCompile() {
+    assertFailsToCompile("@Produce public void produce() {}", "has @Produce annotation but has no return type.");
+  }
+
+  @Test public void interfaceProducerFailsToCompile() {
+    assertFailsToCompile("@Produce public Runnable produce() { return null; }",
+        "has @Produce annotation on java.lang.Runnable which is an interface.");
+  }
+
+  @Test public void futureProducerWithoutEventTypeFailsToCompile() {
+    assertFailsToCompile("@Produce public java.util.concurrent.Future<?> produce() { return null; }",
+        "does not name the event type.");
+  }
+
+  @Test public void duplicateProducerFailsToCompile() {
+    assertFailsToCompile("@Produce public String first() { return null; }\n"
+        + "@Produce public String second() { return null; }",
+        "Producer for type java.lang.String has already been registered.");
+  }
+
+  private static void assertFailsToCompile(String method, String error) {
+    JavaFileObject source = JavaFileObjects.forSourceString("test.Test", Joiner.on('\n').join(
+        "package test;",
+        "import com.squareup.otto.Produce;",
+        "import com.squareup.otto.Subscribe;",
+        "public class Test {",
+        method,
+        "}"));
+
+    assertAbout(javaSource()).that(source)
+        .processedWith(new OttoProcessor())
+        .failsToCompile()
+        .withErrorContaining(error);
+  }
+}
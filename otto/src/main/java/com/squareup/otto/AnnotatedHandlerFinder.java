@@ -19,6 +19,8 @@ package com.squareup.otto;
 
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
@@ -36,22 +38,48 @@ import java.util.concurrent.ConcurrentMap;
 final class AnnotatedHandlerFinder {
 
   /** Cache event bus producer methods for each class. */
-  private static final ConcurrentMap<Class<?>, Map<Class<?>, Method>> PRODUCERS_CACHE =
-    new ConcurrentHashMap<Class<?>, Map<Class<?>, Method>>();
+  private static final ConcurrentMap<Class<?>, Map<Class<?>, ListenerMethod>> PRODUCERS_CACHE =
+    new ConcurrentHashMap<Class<?>, Map<Class<?>, ListenerMethod>>();
 
   /** Cache event bus subscriber methods for each class. */
-  private static final ConcurrentMap<Class<?>, Map<Class<?>, Set<Method>>> SUBSCRIBERS_CACHE =
-    new ConcurrentHashMap<Class<?>, Map<Class<?>, Set<Method>>>();
+  private static final ConcurrentMap<Class<?>, Map<Class<?>, Set<ListenerMethod>>> SUBSCRIBERS_CACHE =
+    new ConcurrentHashMap<Class<?>, Map<Class<?>, Set<ListenerMethod>>>();
+
+  /**
+   * Returns the type of event {@code method} produces: its return type, or the type argument of a
+   * {@link java.util.concurrent.Future} or {@link java.util.concurrent.Callable} return type.
+   */
+  private static Class<?> producedType(Method method) {
+    Class<?> returnType = method.getReturnType();
+    if (!EventProducer.isDeferred(returnType)) {
+      return returnType;
+    }
+    Type genericType = method.getGenericReturnType();
+    if (genericType instanceof ParameterizedType) {
+      Type[] arguments = ((ParameterizedType) genericType).getActualTypeArguments();
+      if (arguments.length == 1) {
+        Type argument = arguments[0];
+        if (argument instanceof ParameterizedType) {
+          argument = ((ParameterizedType) argument).getRawType();
+        }
+        if (argument instanceof Class) {
+          return (Class<?>) argument;
+        }
+      }
+    }
+    throw new IllegalArgumentException("Method " + method + " has @Produce annotation but its return type "
+        + genericType + " does not name the event type.  Must declare a type such as Future<Event>.");
+  }
 
   private static void loadAnnotatedProducerMethods(Class<?> listenerClass,
-      Map<Class<?>, Method> producerMethods) {
-    Map<Class<?>, Set<Method>> subscriberMethods = new HashMap<Class<?>, Set<Method>>();
+      Map<Class<?>, ListenerMethod> producerMethods) {
+    Map<Class<?>, Set<ListenerMethod>> subscriberMethods = new HashMap<Class<?>, Set<ListenerMethod>>();
     loadAnnotatedMethods(listenerClass, producerMethods, subscriberMethods);
   }
 
   private static void loadAnnotatedSubscriberMethods(Class<?> listenerClass,
-      Map<Class<?>, Set<Method>> subscriberMethods) {
-    Map<Class<?>, Method> producerMethods = new HashMap<Class<?>, Method>();
+      Map<Class<?>, Set<ListenerMethod>> subscriberMethods) {
+    Map<Class<?>, ListenerMethod> producerMethods = new HashMap<Class<?>, ListenerMethod>();
     loadAnnotatedMethods(listenerClass, producerMethods, subscriberMethods);
   }
 
@@ -60,7 +88,14 @@ final class AnnotatedHandlerFinder {
    * specified class.
    */
   private static void loadAnnotatedMethods(Class<?> listenerClass,
-      Map<Class<?>, Method> producerMethods, Map<Class<?>, Set<Method>> subscriberMethods) {
+      Map<Class<?>, ListenerMethod> producerMethods, Map<Class<?>, Set<ListenerMethod>> subscriberMethods) {
+    ListenerDispatcher<Object> dispatcher = loadDispatcher(listenerClass);
+    if (dispatcher instanceof ListenerIndex) {
+      loadIndexedMethods(listenerClass, dispatcher, (ListenerIndex) dispatcher, producerMethods, subscriberMethods);
+      PRODUCERS_CACHE.put(listenerClass, producerMethods);
+      SUBSCRIBERS_CACHE.put(listenerClass, subscriberMethods);
+      return;
+    }
     for (Method method : listenerClass.getDeclaredMethods()) {
       // The compiler sometimes creates synthetic bridge methods as part of the
       // type erasure process. As of JDK8 these methods now include the same
@@ -77,34 +112,26 @@ final class AnnotatedHandlerFinder {
         }
 
         Class<?> eventType = parameterTypes[0];
-        if (eventType.isInterface()) {
-          throw new IllegalArgumentException("Method " + method + " has @Subscribe annotation on " + eventType
-              + " which is an interface.  Subscription must be on a concrete class type.");
-        }
-
         if ((method.getModifiers() & Modifier.PUBLIC) == 0) {
           throw new IllegalArgumentException("Method " + method + " has @Subscribe annotation on " + eventType
               + " but is not 'public'.");
         }
 
-        Set<Method> methods = subscriberMethods.get(eventType);
-        if (methods == null) {
-          methods = new HashSet<Method>();
-          subscriberMethods.put(eventType, methods);
-        }
-        methods.add(method);
+        int index = dispatcher != null ? dispatcher.subscriberIndex(method.getName(), eventType) : -1;
+        Subscribe subscribe = method.getAnnotation(Subscribe.class);
+        addSubscriber(subscriberMethods, eventType, ListenerMethod.subscriber(method,
+            createInvoker(method, dispatcher, index), subscribe.threadMode(), subscribe.priority()));
       } else if (method.isAnnotationPresent(Produce.class)) {
         Class<?>[] parameterTypes = method.getParameterTypes();
         if (parameterTypes.length != 0) {
           throw new IllegalArgumentException("Method " + method + "has @Produce annotation but requires "
               + parameterTypes.length + " arguments.  Methods must require zero arguments.");
         }
-        if (method.getReturnType() == Void.class) {
+        Class<?> eventType = producedType(method);
+        if (eventType == Void.class) {
           throw new IllegalArgumentException("Method " + method
               + " has a return type of void.  Must declare a non-void type.");
         }
-
-        Class<?> eventType = method.getReturnType();
         if (eventType.isInterface()) {
           throw new IllegalArgumentException("Method " + method + " has @Produce annotation on " + eventType
               + " which is an interface.  Producers must return a concrete class type.");
@@ -121,7 +148,10 @@ final class AnnotatedHandlerFinder {
         if (producerMethods.containsKey(eventType)) {
           throw new IllegalArgumentException("Producer for type " + eventType + " has already been registered.");
         }
-        producerMethods.put(eventType, method);
+
+        int index = dispatcher != null ? dispatcher.producerIndex(method.getName()) : -1;
+        producerMethods.put(eventType, ListenerMethod.producer(method, createInvoker(method, dispatcher, index),
+            method.getAnnotation(Produce.class).perHandler()));
       }
     }
 
@@ -129,20 +159,83 @@ final class AnnotatedHandlerFinder {
     SUBSCRIBERS_CACHE.put(listenerClass, subscriberMethods);
   }
 
+  /**
+   * Loads the methods described by {@code index}, which the annotation processor has already checked, without
+   * scanning {@code listenerClass} or looking any of them up through reflection.
+   */
+  private static void loadIndexedMethods(Class<?> listenerClass, ListenerDispatcher<Object> dispatcher,
+      ListenerIndex index, Map<Class<?>, ListenerMethod> producerMethods,
+      Map<Class<?>, Set<ListenerMethod>> subscriberMethods) {
+    ListenerIndex.Subscriber[] subscribers = index.subscribers();
+    for (int i = 0; i < subscribers.length; i++) {
+      ListenerIndex.Subscriber subscriber = subscribers[i];
+      addSubscriber(subscriberMethods, subscriber.eventType, ListenerMethod.subscriber(listenerClass,
+          subscriber.methodName, subscriber.eventType, new GeneratedInvoker(dispatcher, i), subscriber.threadMode,
+          subscriber.priority));
+    }
+
+    ListenerIndex.Producer[] producers = index.producers();
+    for (int i = 0; i < producers.length; i++) {
+      ListenerIndex.Producer producer = producers[i];
+      producerMethods.put(producer.eventType, ListenerMethod.producer(listenerClass, producer.methodName,
+          new GeneratedInvoker(dispatcher, i), producer.perHandler, producer.deferred));
+    }
+  }
+
+  private static void addSubscriber(Map<Class<?>, Set<ListenerMethod>> subscriberMethods, Class<?> eventType,
+      ListenerMethod subscriber) {
+    Set<ListenerMethod> methods = subscriberMethods.get(eventType);
+    if (methods == null) {
+      methods = new HashSet<ListenerMethod>();
+      subscriberMethods.put(eventType, methods);
+    }
+    methods.add(subscriber);
+  }
+
+  /**
+   * Loads the {@link ListenerDispatcher} generated for {@code listenerClass} by the annotation processor, or returns
+   * {@code null} if there is none.
+   */
+  @SuppressWarnings("unchecked") // Generated dispatchers are always for their listener class.
+  private static ListenerDispatcher<Object> loadDispatcher(Class<?> listenerClass) {
+    String listenerName = listenerClass.getName();
+    if (listenerName.startsWith("java.") || listenerName.startsWith("android.")) {
+      return null;
+    }
+    String dispatcherName = listenerName + ListenerDispatcher.SUFFIX;
+    try {
+      Class<?> dispatcherClass = Class.forName(dispatcherName, true, listenerClass.getClassLoader());
+      return (ListenerDispatcher<Object>) dispatcherClass.newInstance();
+    } catch (ClassNotFoundException e) {
+      return null;
+    } catch (InstantiationException e) {
+      throw new RuntimeException("Unable to create dispatcher " + dispatcherName, e);
+    } catch (IllegalAccessException e) {
+      throw new RuntimeException("Unable to create dispatcher " + dispatcherName, e);
+    }
+  }
+
+  /** Creates an invoker which uses {@code dispatcher} if it knows {@code method}, or reflection otherwise. */
+  private static MethodInvoker createInvoker(Method method, ListenerDispatcher<Object> dispatcher, int index) {
+    if (index == -1) {
+      return new ReflectiveInvoker(method);
+    }
+    return new GeneratedInvoker(dispatcher, index);
+  }
+
   /** This implementation finds all methods marked with a {@link Produce} annotation. */
   static Map<Class<?>, EventProducer> findAllProducers(Object listener) {
     final Class<?> listenerClass = listener.getClass();
     Map<Class<?>, EventProducer> handlersInMethod = new HashMap<Class<?>, EventProducer>();
 
-    Map<Class<?>, Method> methods = PRODUCERS_CACHE.get(listenerClass);
+    Map<Class<?>, ListenerMethod> methods = PRODUCERS_CACHE.get(listenerClass);
     if (null == methods) {
-      methods = new HashMap<Class<?>, Method>();
+      methods = new HashMap<Class<?>, ListenerMethod>();
       loadAnnotatedProducerMethods(listenerClass, methods);
     }
     if (!methods.isEmpty()) {
-      for (Map.Entry<Class<?>, Method> e : methods.entrySet()) {
-        EventProducer producer = new EventProducer(listener, e.getValue());
-        handlersInMethod.put(e.getKey(), producer);
+      for (Map.Entry<Class<?>, ListenerMethod> e : methods.entrySet()) {
+        handlersInMethod.put(e.getKey(), e.getValue().newProducer(listener));
       }
     }
 
@@ -154,16 +247,16 @@ final class AnnotatedHandlerFinder {
     Class<?> listenerClass = listener.getClass();
     Map<Class<?>, Set<EventHandler>> handlersInMethod = new HashMap<Class<?>, Set<EventHandler>>();
 
-    Map<Class<?>, Set<Method>> methods = SUBSCRIBERS_CACHE.get(listenerClass);
+    Map<Class<?>, Set<ListenerMethod>> methods = SUBSCRIBERS_CACHE.get(listenerClass);
     if (null == methods) {
-      methods = new HashMap<Class<?>, Set<Method>>();
+      methods = new HashMap<Class<?>, Set<ListenerMethod>>();
       loadAnnotatedSubscriberMethods(listenerClass, methods);
     }
     if (!methods.isEmpty()) {
-      for (Map.Entry<Class<?>, Set<Method>> e : methods.entrySet()) {
+      for (Map.Entry<Class<?>, Set<ListenerMethod>> e : methods.entrySet()) {
         Set<EventHandler> handlers = new HashSet<EventHandler>();
-        for (Method m : e.getValue()) {
-          handlers.add(new EventHandler(listener, m));
+        for (ListenerMethod m : e.getValue()) {
+          handlers.add(m.newHandler(listener));
         }
         handlersInMethod.put(e.getKey(), handlers);
       }
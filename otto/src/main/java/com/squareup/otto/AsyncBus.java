@@ -0,0 +1,500 @@
+/*
+ * Copyright (C) 2015 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.squareup.otto;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link Bus} which delivers events on a user-supplied {@link Executor} instead of the posting thread.
+ *
+ * <p>Each subscriber (the object passed to {@link #register(Object)}) has its own mailbox. Events reach a subscriber
+ * in the order they were posted, one at a time, so its handler methods never run concurrently with each other.
+ * Different subscribers are independent and run in parallel when the executor has threads to spare.
+ *
+ * <p>Handlers which throw do not stop their mailbox. The exception goes to the executor thread's
+ * {@link Thread.UncaughtExceptionHandler}, and the mailbox goes on delivering its remaining events.
+ *
+ * <p>Use {@link #flush()} or {@link #awaitQuiescence(long, TimeUnit)} to wait for outstanding deliveries, and
+ * {@link #shutdown()} followed by {@link #awaitTermination(long, TimeUnit)} to stop the bus. The executor is owned by
+ * the caller and is never shut down by this class. For subscribers which block, {@link VirtualThreads#newExecutor()}
+ * runs each mailbox on its own virtual thread.
+ *
+ * <p>Mailboxes are unbounded unless a capacity is given, either for the whole bus or for one subscriber with
+ * {@link #register(Object, int, BackpressurePolicy)}. When a bounded mailbox is full its {@link BackpressurePolicy}
+ * decides what happens to new events, and events which are not delivered are counted by
+ * {@link #getDroppedEventCount()}.
+ *
+ * <p>This class is safe for concurrent use.
+ */
+public class AsyncBus extends Bus {
+  /** Mailbox capacity which never applies backpressure. */
+  public static final int UNBOUNDED = Integer.MAX_VALUE;
+
+  /** Executor which runs mailboxes. */
+  private final Executor executor;
+
+  /** Capacity of mailboxes for subscribers registered without their own. */
+  private final int mailboxCapacity;
+
+  /** Policy of mailboxes for subscribers registered without their own. */
+  private final BackpressurePolicy backpressurePolicy;
+
+  /** Events dropped by every mailbox, including those of unregistered subscribers. */
+  private final AtomicLong droppedEvents = new AtomicLong();
+
+  /** Mailbox for each handler, shared by every handler of the same subscriber. */
+  private final ConcurrentMap<EventHandler, Mailbox> mailboxes = new ConcurrentHashMap<EventHandler, Mailbox>();
+
+  /**
+   * Mailbox for each subscriber, keyed by its handlers' target. Guarded by itself; only consulted when a handler has no
+   * mailbox yet.
+   */
+  private final Map<Object, Mailbox> mailboxesByTarget = new IdentityHashMap<Object, Mailbox>();
+
+  /** Deliveries which have been accepted but have not yet completed. */
+  private final AtomicInteger pendingDeliveries = new AtomicInteger();
+
+  /** Notified whenever {@link #pendingDeliveries} drops to zero. */
+  private final Object quiescenceLock = new Object();
+
+  private volatile boolean shutdown;
+
+  /**
+   * Creates a new AsyncBus named "default" which delivers events on {@code executor} and allows interaction from any
+   * thread.
+   *
+   * @param executor Executor on which handlers are called.
+   */
+  public AsyncBus(Executor executor) {
+    this(ThreadEnforcer.ANY, DEFAULT_IDENTIFIER, executor);
+  }
+
+  /**
+   * Creates a new AsyncBus with the given {@code identifier} which delivers events on {@code executor} and allows
+   * interaction from any thread.
+   *
+   * @param identifier A brief name for this bus, for debugging purposes.  Should be a valid Java identifier.
+   * @param executor Executor on which handlers are called.
+   */
+  public AsyncBus(String identifier, Executor executor) {
+    this(ThreadEnforcer.ANY, identifier, executor);
+  }
+
+  /**
+   * Creates a new AsyncBus with the given {@code enforcer} for actions and the given {@code identifier} which delivers
+   * events on {@code executor}.
+   *
+   * @param enforcer Thread enforcer for register, unregister, and post actions.
+   * @param identifier A brief name for this bus, for debugging purposes.  Should be a valid Java identifier.
+   * @param executor Executor on which handlers are called.
+   */
+  public AsyncBus(ThreadEnforcer enforcer, String identifier, Executor executor) {
+    this(enforcer, identifier, executor, UNBOUNDED, BackpressurePolicy.BLOCK);
+  }
+
+  /**
+   * Creates a new AsyncBus with the given {@code enforcer} for actions and the given {@code identifier} which delivers
+   * events on {@code executor}, holding at most {@code mailboxCapacity} undelivered events for each subscriber.
+   *
+   * @param enforcer Thread enforcer for register, unregister, and post actions.
+   * @param identifier A brief name for this bus, for debugging purposes.  Should be a valid Java identifier.
+   * @param executor Executor on which handlers are called.
+   * @param mailboxCapacity Undelivered events each subscriber may have, or {@link #UNBOUNDED}.
+   * @param backpressurePolicy What to do with events posted to a subscriber whose mailbox is full.
+   */
+  public AsyncBus(ThreadEnforcer enforcer, String identifier, Executor executor, int mailboxCapacity,
+      BackpressurePolicy backpressurePolicy) {
+    super(enforcer, identifier);
+    if (executor == null) {
+      throw new NullPointerException("Executor must not be null.");
+    }
+    checkMailboxLimits(mailboxCapacity, backpressurePolicy);
+    this.executor = executor;
+    this.mailboxCapacity = mailboxCapacity;
+    this.backpressurePolicy = backpressurePolicy;
+  }
+
+  private static void checkMailboxLimits(int mailboxCapacity, BackpressurePolicy backpressurePolicy) {
+    if (mailboxCapacity <= 0) {
+      throw new IllegalArgumentException("Mailbox capacity must be positive: " + mailboxCapacity);
+    }
+    if (backpressurePolicy == null) {
+      throw new NullPointerException("Backpressure policy must not be null.");
+    }
+  }
+
+  /**
+   * Posts an event to all registered handlers. This method returns as soon as the event has been handed to each
+   * handler's mailbox.
+   *
+   * @throws IllegalStateException if the bus has been shut down.
+   */
+  @Override public void post(Object event) {
+    if (shutdown) {
+      throw new IllegalStateException("Event bus " + this + " has been shut down.");
+    }
+    super.post(event);
+  }
+
+  /**
+   * Posts each of {@code events} to all registered handlers, returning as soon as they have been handed to each
+   * handler's mailbox.
+   *
+   * @throws IllegalStateException if the bus has been shut down.
+   */
+  @Override public void postAll(Collection<?> events) {
+    if (shutdown) {
+      throw new IllegalStateException("Event bus " + this + " has been shut down.");
+    }
+    super.postAll(events);
+  }
+
+  /**
+   * Registers {@code object} like {@link #register(Object)}, but gives it a mailbox which holds at most
+   * {@code mailboxCapacity} undelivered events and applies {@code backpressurePolicy} when full. The limits apply
+   * until the object is unregistered.
+   *
+   * @param object object whose handler methods should be registered.
+   * @param mailboxCapacity Undelivered events the object may have, or {@link #UNBOUNDED}.
+   * @param backpressurePolicy What to do with events posted to the object while its mailbox is full.
+   * @return a handle which unregisters exactly what was registered, and discards the mailbox.
+   */
+  public Registration register(Object object, int mailboxCapacity, BackpressurePolicy backpressurePolicy) {
+    if (object == null) {
+      throw new NullPointerException("Object to register must not be null.");
+    }
+    checkMailboxLimits(mailboxCapacity, backpressurePolicy);
+    Mailbox mailbox = new Mailbox(mailboxCapacity, backpressurePolicy);
+    synchronized (mailboxesByTarget) {
+      if (mailboxesByTarget.containsKey(object)) {
+        throw new IllegalArgumentException("Object already registered.");
+      }
+      mailboxesByTarget.put(object, mailbox);
+    }
+    boolean registered = false;
+    try {
+      Registration registration = register(object);
+      // An object without handlers keeps nothing on the bus, so it is never unregistered and must not keep a mailbox.
+      registered = registration.isRegistered();
+      return registration;
+    } finally {
+      if (!registered) {
+        synchronized (mailboxesByTarget) {
+          mailboxesByTarget.remove(object);
+        }
+      }
+    }
+  }
+
+  /** Returns the number of events which mailbox backpressure kept from being delivered. */
+  public long getDroppedEventCount() {
+    return droppedEvents.get();
+  }
+
+  /**
+   * Returns the number of events which backpressure kept from being delivered to {@code subscriber} since it was
+   * registered, or 0 if it is not registered.
+   */
+  public long getDroppedEventCount(Object subscriber) {
+    Mailbox mailbox;
+    synchronized (mailboxesByTarget) {
+      mailbox = mailboxesByTarget.get(subscriber);
+    }
+    if (mailbox == null) {
+      return 0;
+    }
+    synchronized (mailbox) {
+      return mailbox.dropped;
+    }
+  }
+
+  @Override void unregistered(Collection<Registration> registrations) {
+    super.unregistered(registrations);
+    List<Object> keys = new ArrayList<Object>(registrations.size());
+    for (Registration registration : registrations) {
+      keys.add(registration.key);
+    }
+    discardMailboxes(keys);
+  }
+
+  /** Drops the mailboxes of the handler targets in {@code keys}. */
+  private void discardMailboxes(Collection<?> keys) {
+    synchronized (mailboxesByTarget) {
+      Set<Mailbox> discarded = Collections.newSetFromMap(new IdentityHashMap<Mailbox, Boolean>());
+      for (Object key : keys) {
+        Mailbox mailbox = mailboxesByTarget.remove(key);
+        if (mailbox != null) {
+          discarded.add(mailbox);
+        }
+      }
+      if (discarded.isEmpty()) {
+        return;
+      }
+      for (Iterator<Mailbox> i = mailboxes.values().iterator(); i.hasNext();) {
+        if (discarded.contains(i.next())) {
+          i.remove();
+        }
+      }
+    }
+  }
+
+  /**
+   * Hands {@code event} to the mailbox of {@code wrapper}'s subscriber. Handlers with a {@link ThreadMode} other than
+   * {@link ThreadMode#POSTING} are already on their own executor and are called directly.
+   */
+  @Override protected void dispatch(Object event, EventHandler wrapper) {
+    if (wrapper.threadMode != ThreadMode.POSTING) {
+      super.dispatch(event, wrapper);
+      return;
+    }
+    if (shutdown) {
+      throw new IllegalStateException("Event bus " + this + " has been shut down.");
+    }
+    Mailbox mailbox = mailboxes.get(wrapper);
+    if (mailbox == null) {
+      mailbox = getOrCreateMailbox(wrapper);
+      if (mailbox == null) {
+        return;
+      }
+    }
+    mailbox.enqueue(event, wrapper);
+  }
+
+  /**
+   * Returns the mailbox of {@code wrapper}'s subscriber, creating it if needed, or null if the handler has been
+   * unregistered. Handlers are invalidated before their mailboxes are discarded, so checking under the same lock keeps
+   * a post racing with unregistration from creating a mailbox which would never be discarded.
+   */
+  private Mailbox getOrCreateMailbox(EventHandler wrapper) {
+    synchronized (mailboxesByTarget) {
+      if (!wrapper.isValid()) {
+        return null;
+      }
+      Mailbox mailbox = mailboxesByTarget.get(wrapper.target);
+      if (mailbox == null) {
+        mailbox = new Mailbox(mailboxCapacity, backpressurePolicy);
+        mailboxesByTarget.put(wrapper.target, mailbox);
+      }
+      mailboxes.put(wrapper, mailbox);
+      return mailbox;
+    }
+  }
+
+  /**
+   * Blocks until every delivery has completed, including any handed over while waiting.
+   *
+   * @throws InterruptedException if interrupted while waiting.
+   */
+  public void flush() throws InterruptedException {
+    synchronized (quiescenceLock) {
+      while (pendingDeliveries.get() != 0) {
+        quiescenceLock.wait();
+      }
+    }
+  }
+
+  /**
+   * Blocks until every delivery has completed, or until the timeout elapses.
+   *
+   * @return true if the bus became quiescent, or false if the timeout elapsed first.
+   * @throws InterruptedException if interrupted while waiting.
+   */
+  public boolean awaitQuiescence(long timeout, TimeUnit unit) throws InterruptedException {
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    synchronized (quiescenceLock) {
+      while (pendingDeliveries.get() != 0) {
+        long remaining = deadline - System.nanoTime();
+        if (remaining <= 0) {
+          return false;
+        }
+        TimeUnit.NANOSECONDS.timedWait(quiescenceLock, remaining);
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Stops accepting events. Deliveries already handed to mailboxes still run; use
+   * {@link #awaitTermination(long, TimeUnit)} to wait for them. Posting after shutdown throws
+   * {@link IllegalStateException}.
+   */
+  public void shutdown() {
+    shutdown = true;
+  }
+
+  /** Returns true if {@link #shutdown()} has been called. */
+  public boolean isShutdown() {
+    return shutdown;
+  }
+
+  /**
+   * Blocks until every outstanding delivery has completed after a shutdown, or until the timeout elapses.
+   *
+   * @return true if all deliveries completed, or false if the timeout elapsed first.
+   * @throws IllegalStateException if the bus has not been shut down.
+   * @throws InterruptedException if interrupted while waiting.
+   */
+  public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+    if (!shutdown) {
+      throw new IllegalStateException("Event bus " + this + " has not been shut down.");
+    }
+    return awaitQuiescence(timeout, unit);
+  }
+
+  private void deliveryCompleted() {
+    if (pendingDeliveries.decrementAndGet() == 0) {
+      synchronized (quiescenceLock) {
+        quiescenceLock.notifyAll();
+      }
+    }
+  }
+
+  /**
+   * Events waiting for one subscriber. At most one executor task drains a mailbox at a time, which is what keeps each
+   * subscriber's deliveries ordered and serial.
+   */
+  private final class Mailbox implements Runnable {
+    private final int capacity;
+    private final BackpressurePolicy policy;
+    /** Guarded by this. */
+    private final DispatchQueue queue = new DispatchQueue();
+    /** True while a task to drain this mailbox is queued or running. Guarded by this. */
+    private boolean scheduled;
+    /** Thread running the task which drains this mailbox, if any. Guarded by this. */
+    private Thread drainingThread;
+    /** Events dropped by backpressure. Guarded by this. */
+    long dropped;
+
+    Mailbox(int capacity, BackpressurePolicy policy) {
+      this.capacity = capacity;
+      this.policy = policy;
+    }
+
+    void enqueue(Object event, EventHandler handler) {
+      synchronized (this) {
+        if (queue.size() >= capacity) {
+          if (queue.replaceQueued(event, handler)) {
+            // Conflated with an undelivered event, so no room is needed.
+            return;
+          }
+          if (!makeRoom(handler)) {
+            return;
+          }
+        }
+        if (!queue.offer(event, handler)) {
+          // Conflated with an undelivered event.
+          return;
+        }
+        pendingDeliveries.incrementAndGet();
+        if (scheduled) {
+          return;
+        }
+        scheduled = true;
+      }
+      executor.execute(this);
+    }
+
+    /** Applies the policy to a full mailbox. Returns true if a new entry may then be added. Guarded by this. */
+    private boolean makeRoom(EventHandler handler) {
+      switch (policy) {
+        case BLOCK:
+          if (drainingThread == Thread.currentThread()) {
+            // Posted by this subscriber's own handler. Waiting would never end, so go over capacity instead.
+            return true;
+          }
+          try {
+            while (queue.size() >= capacity) {
+              wait();
+            }
+            return true;
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            drop();
+            return false;
+          }
+        case DROP_NEWEST:
+          drop();
+          return false;
+        case DROP_OLDEST:
+          queue.removeHead();
+          drop();
+          deliveryCompleted();
+          return true;
+        case FAIL:
+          drop();
+          throw new IllegalStateException("Mailbox for " + handler + " on " + AsyncBus.this + " is full ("
+              + capacity + " events).");
+        default:
+          throw new AssertionError(policy);
+      }
+    }
+
+    /** Guarded by this. */
+    private void drop() {
+      dropped++;
+      droppedEvents.incrementAndGet();
+    }
+
+    @Override public void run() {
+      synchronized (this) {
+        drainingThread = Thread.currentThread();
+      }
+      while (true) {
+        Object event;
+        EventHandler handler;
+        synchronized (this) {
+          if (queue.isEmpty()) {
+            scheduled = false;
+            drainingThread = null;
+            return;
+          }
+          event = queue.headEvent();
+          handler = queue.headHandler();
+          queue.removeHead();
+          if (policy == BackpressurePolicy.BLOCK && capacity != UNBOUNDED) {
+            notifyAll();
+          }
+        }
+
+        try {
+          if (handler.isValid()) {
+            AsyncBus.super.dispatch(event, handler);
+          }
+        } catch (Throwable t) {
+          // Report the failure without stopping this mailbox, which goes on to deliver its other events.
+          Thread current = Thread.currentThread();
+          current.getUncaughtExceptionHandler().uncaughtException(current, t);
+        } finally {
+          deliveryCompleted();
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2015 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.squareup.otto;
+
+/**
+ * What an {@link AsyncBus} does when an event is posted to a subscriber whose mailbox is full. Every event which is
+ * not delivered because of the policy is counted; see {@link AsyncBus#getDroppedEventCount()}.
+ */
+public enum BackpressurePolicy {
+  /**
+   * The posting thread waits until the mailbox has room. A handler posting to its own subscriber's full mailbox is
+   * never blocked, since nothing else would drain it; the mailbox briefly exceeds its capacity instead. If the posting
+   * thread is interrupted while waiting, the event is dropped and the thread's interrupt status is restored.
+   */
+  BLOCK,
+
+  /** The new event is dropped for that subscriber. */
+  DROP_NEWEST,
+
+  /** The oldest event waiting in the mailbox is dropped to make room for the new one. */
+  DROP_OLDEST,
+
+  /** The new event is dropped for that subscriber and the post throws {@link IllegalStateException}. */
+  FAIL
+}
@@ -17,17 +17,33 @@
 
 package com.squareup.otto;
 
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
 import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashSet;
-import java.util.LinkedList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
 /**
@@ -58,7 +74,8 @@ import java.util.concurrent.CopyOnWriteArraySet;
  *
  * <p>When {@code post} is called, all registered handlers for an event are run in sequence, so handlers should be
  * reasonably quick.  If an event may trigger an extended process (such as a database load), spawn a thread or queue it
- * for later.
+ * for later.  Alternatively, give the handler a {@link Subscribe#threadMode() thread mode} which runs it on one of the
+ * bus's executors.
  *
  * <h2>Handler Methods</h2>
  * Event handler methods must accept only one argument: the event.
@@ -72,7 +89,10 @@ import java.util.concurrent.CopyOnWriteArraySet;
  * <h2>Producer Methods</h2>
  * Producer methods should accept no arguments and return their event type. When a subscriber is registered for a type
  * that a producer is also already registered for, the subscriber will be called with the return value from the
- * producer.
+ * producer. A producer may return a {@link java.util.concurrent.Future Future} or
+ * {@link java.util.concurrent.Callable Callable} of its event type, which is resolved in the background rather than
+ * during registration. An event posted with {@link #postSticky(Object)} is replayed to new subscribers the same way,
+ * without any producer.
  *
  * <h2>Dead Events</h2>
  * If an event is posted, but no registered handlers can accept it, it is considered "dead."  To give the system a
@@ -87,14 +107,56 @@ import java.util.concurrent.CopyOnWriteArraySet;
 public class Bus {
   public static final String DEFAULT_IDENTIFIER = "default";
 
+  /** Number of event types whose sticky event a bus keeps unless given another capacity. */
+  public static final int DEFAULT_STICKY_EVENT_CAPACITY = 64;
+
+  /** Parameters of {@link #enqueueEvent(Object, EventHandler)}. */
+  private static final Class<?>[] QUEUE_HOOK_PARAMETERS = {Object.class, EventHandler.class};
+
+  /** How long a background thread waits on a producer's future before checking that its event is still wanted. */
+  private static final long DEFERRED_POLL_MILLIS = 100;
+
+  /** Used when no background executor is given. Forwards to the shared pool, which is created on first use. */
+  private static final Executor DEFAULT_BACKGROUND_EXECUTOR = new Executor() {
+    @Override public void execute(Runnable command) {
+      DefaultBackgroundPool.INSTANCE.execute(command);
+    }
+  };
+
   /** All registered event handlers, indexed by event type. */
-  private final ConcurrentMap<Class<?>, Set<EventHandler>> handlersByType =
-          new ConcurrentHashMap<Class<?>, Set<EventHandler>>();
+  private final ConcurrentMap<Class<?>, HandlerSet> handlersByType =
+          new ConcurrentHashMap<Class<?>, HandlerSet>();
+
+  /** Handlers for every type each posted event class is assignable to, indexed by the event's concrete class. */
+  private final ConcurrentMap<Class<?>, DispatchPlan> dispatchPlans =
+          new ConcurrentHashMap<Class<?>, DispatchPlan>();
+
+  /** Incremented whenever handlers or replay buffers are added or removed, making cached dispatch plans stale. */
+  private final AtomicInteger handlersVersion = new AtomicInteger();
 
   /** All registered event producers, index by event type. */
   private final ConcurrentMap<Class<?>, EventProducer> producersByType =
           new ConcurrentHashMap<Class<?>, EventProducer>();
 
+  /** Handle for each strongly registered object, compared by identity. Guarded by itself. */
+  private final Map<Object, Registration> registrations = new IdentityHashMap<Object, Registration>();
+
+  /** Handle for each weakly registered object, by the reference holding it. Guarded by {@link #registrations}. */
+  private final Map<WeakTarget, Registration> weakRegistrations = new HashMap<WeakTarget, Registration>();
+
+  /** Receives the {@link WeakTarget} of each weakly registered object once the object has been collected. */
+  private final ReferenceQueue<Object> collectedTargets = new ReferenceQueue<Object>();
+
+  /** Latest event posted with {@link #postSticky(Object)} for each type. Guarded by itself. */
+  private final StickyEvents stickyEvents;
+
+  /** Events kept for replay by {@link #enableReplay(Class, int)}, by the type they were configured for. */
+  private final ConcurrentMap<Class<?>, ReplayBuffer> replayBuffers =
+          new ConcurrentHashMap<Class<?>, ReplayBuffer>();
+
+  /** Whether a subclass overrides the queueing hooks, which posts must then go through. */
+  private final boolean queueHooksOverridden = overridesQueueHooks(getClass());
+
   /** Identifier used to differentiate the event bus instance. */
   private final String identifier;
 
@@ -104,20 +166,31 @@ public class Bus {
   /** Used to find handler methods in register and unregister. */
   private final HandlerFinder handlerFinder;
 
-  /** Queues of events for the current thread to dispatch. */
-  private final ThreadLocal<ConcurrentLinkedQueue<EventWithHandler>> eventsToDispatch =
-      new ThreadLocal<ConcurrentLinkedQueue<EventWithHandler>>() {
-        @Override protected ConcurrentLinkedQueue<EventWithHandler> initialValue() {
-          return new ConcurrentLinkedQueue<EventWithHandler>();
-        }
-      };
+  /** Runs {@link ThreadMode#MAIN} handlers, or null if this bus has no main thread. */
+  private final Executor mainThreadExecutor;
 
-  /** True if the current thread is currently dispatching an event. */
-  private final ThreadLocal<Boolean> isDispatching = new ThreadLocal<Boolean>() {
-    @Override protected Boolean initialValue() {
-      return false;
-    }
-  };
+  /** Runs {@link ThreadMode#ASYNC} handlers. */
+  private final Executor backgroundExecutor;
+
+  /**
+   * Runs each subscriber's {@link ThreadMode#BACKGROUND} handlers one at a time on {@link #backgroundExecutor},
+   * keyed by {@link EventHandler#target}. Guarded by itself.
+   */
+  private final Map<Object, SerialExecutor> backgroundQueues = new IdentityHashMap<Object, SerialExecutor>();
+
+  /**
+   * Number of deliveries handed to a {@link MainThreadExecutor} and not yet finished, keyed by
+   * {@link EventHandler#target}. A subscriber only receives events directly on the main thread while it has none, so
+   * that it still sees events in the order they were posted. Guarded by itself.
+   */
+  private final Map<Object, Integer> pendingMainDeliveries = new IdentityHashMap<Object, Integer>();
+
+  /**
+   * Queue of events for the current thread to dispatch, which also tracks whether the thread is dispatching. Queues
+   * never reference the bus and give up large buffers once drained, so a collected bus leaves only a small, empty
+   * stale entry in each posting thread.
+   */
+  private final ThreadLocal<DispatchQueue> dispatchQueue = new DispatchQueueThreadLocal();
 
   /** Creates a new Bus named "default" that enforces actions on the main thread. */
   public Bus() {
@@ -152,6 +225,38 @@ public class Bus {
     this(enforcer, identifier, HandlerFinder.ANNOTATED);
   }
 
+  /**
+   * Creates a new Bus with the given {@code enforcer} for actions and the given {@code identifier}, which runs
+   * handlers which are not in {@link ThreadMode#POSTING} mode on the given executors.
+   *
+   * @param enforcer Thread enforcer for register, unregister, and post actions.
+   * @param identifier A brief name for this bus, for debugging purposes.  Should be a valid Java identifier.
+   * @param mainThreadExecutor Runs {@link ThreadMode#MAIN} handlers, or null to reject such handlers. If it is a
+   *     {@link MainThreadExecutor}, events posted on its main thread may be delivered directly.
+   * @param backgroundExecutor Runs {@link ThreadMode#BACKGROUND} and {@link ThreadMode#ASYNC} handlers, or null to
+   *     use a shared pool of daemon threads.
+   */
+  public Bus(ThreadEnforcer enforcer, String identifier, Executor mainThreadExecutor, Executor backgroundExecutor) {
+    this(enforcer, identifier, mainThreadExecutor, backgroundExecutor, DEFAULT_STICKY_EVENT_CAPACITY);
+  }
+
+  /**
+   * Creates a new Bus like {@link #Bus(ThreadEnforcer, String, Executor, Executor)} which keeps the sticky events of
+   * at most {@code stickyEventCapacity} event types.
+   *
+   * @param enforcer Thread enforcer for register, unregister, and post actions.
+   * @param identifier A brief name for this bus, for debugging purposes.  Should be a valid Java identifier.
+   * @param mainThreadExecutor Runs {@link ThreadMode#MAIN} handlers, or null to reject such handlers. If it is a
+   *     {@link MainThreadExecutor}, events posted on its main thread may be delivered directly.
+   * @param backgroundExecutor Runs {@link ThreadMode#BACKGROUND} and {@link ThreadMode#ASYNC} handlers, or null to
+   *     use a shared pool of daemon threads.
+   * @param stickyEventCapacity Event types whose latest sticky event is kept. The least recently used is evicted.
+   */
+  public Bus(ThreadEnforcer enforcer, String identifier, Executor mainThreadExecutor, Executor backgroundExecutor,
+      int stickyEventCapacity) {
+    this(enforcer, identifier, HandlerFinder.ANNOTATED, mainThreadExecutor, backgroundExecutor, stickyEventCapacity);
+  }
+
   /**
    * Test constructor which allows replacing the default {@code HandlerFinder}.
    *
@@ -160,9 +265,25 @@ public class Bus {
    * @param handlerFinder Used to discover event handlers and producers when registering/unregistering an object.
    */
   Bus(ThreadEnforcer enforcer, String identifier, HandlerFinder handlerFinder) {
+    this(enforcer, identifier, handlerFinder, null, null);
+  }
+
+  Bus(ThreadEnforcer enforcer, String identifier, HandlerFinder handlerFinder, Executor mainThreadExecutor,
+      Executor backgroundExecutor) {
+    this(enforcer, identifier, handlerFinder, mainThreadExecutor, backgroundExecutor, DEFAULT_STICKY_EVENT_CAPACITY);
+  }
+
+  Bus(ThreadEnforcer enforcer, String identifier, HandlerFinder handlerFinder, Executor mainThreadExecutor,
+      Executor backgroundExecutor, int stickyEventCapacity) {
+    if (stickyEventCapacity < 1) {
+      throw new IllegalArgumentException("Sticky event capacity must be positive: " + stickyEventCapacity);
+    }
     this.enforcer =  enforcer;
     this.identifier = identifier;
     this.handlerFinder = handlerFinder;
+    this.mainThreadExecutor = mainThreadExecutor;
+    this.backgroundExecutor = backgroundExecutor != null ? backgroundExecutor : DEFAULT_BACKGROUND_EXECUTOR;
+    this.stickyEvents = new StickyEvents(stickyEventCapacity);
   }
 
   @Override public String toString() {
@@ -177,41 +298,85 @@ public class Bus {
    * <p>
    * If any producers are registering for types which already have subscribers, each subscriber will be called with
    * the value from the result of calling the producer.
+   * <p>
+   * An object without handler or producer methods leaves nothing on the bus, so registering it again is allowed and
+   * its handle is never {@linkplain Registration#isRegistered() registered}.
    *
    * @param object object whose handler methods should be registered.
+   * @return a handle which unregisters exactly what was registered.
+   * @throws IllegalArgumentException if the object is already registered, a producer's type already has one, or a
+   *     handler needs the main thread and this bus has no main thread executor.
    * @throws NullPointerException if the object is null.
    */
-  public void register(Object object) {
+  public Registration register(Object object) {
     if (object == null) {
       throw new NullPointerException("Object to register must not be null.");
     }
+    return register(object, null);
+  }
+
+  /**
+   * Registers {@code object} like {@link #register(Object)}, but without keeping it from being garbage collected. Once
+   * the object has been collected, its handlers and producers are unregistered the next time this bus posts or
+   * registers.
+   *
+   * <p>This suits objects such as screens whose unregister call is easily forgotten. Something else must still
+   * reference the object for as long as it should receive events, so an anonymous object referenced only by the bus
+   * will stop receiving events at the next garbage collection.
+   *
+   * @param object object whose handler methods should be registered.
+   * @return a handle which unregisters exactly what was registered.
+   * @throws IllegalArgumentException if the object is already registered, or a handler needs the main thread and this
+   *     bus has no main thread executor.
+   * @throws NullPointerException if the object is null.
+   */
+  public Registration registerWeakly(Object object) {
+    if (object == null) {
+      throw new NullPointerException("Object to register must not be null.");
+    }
+    return register(object, new WeakTarget(object, collectedTargets));
+  }
+
+  /** Registers {@code object}, weakly if {@code weakTarget} is not null. */
+  private Registration register(Object object, WeakTarget weakTarget) {
     enforcer.enforce(this);
+    purgeCollected();
+
+    checkNotRegistered(object);
+
+    Map<Class<?>, Set<EventHandler>> foundHandlersMap = handlerFinder.findAllSubscribers(object);
+    if (weakTarget != null) {
+      foundHandlersMap = weakHandlers(foundHandlersMap, weakTarget);
+    }
+    checkThreadModes(foundHandlersMap.values());
 
     Map<Class<?>, EventProducer> foundProducers = handlerFinder.findAllProducers(object);
-    for (Class<?> type : foundProducers.keySet()) {
+    checkDeferredProducers(foundProducers.values());
+    if (weakTarget != null) {
+      foundProducers = weakProducers(foundProducers, weakTarget);
+    }
+    Object key = weakTarget != null ? weakTarget : object;
+    if (foundProducers.isEmpty() && foundHandlersMap.isEmpty()) {
+      // Keep nothing for an object without handlers or producers, so the bus never holds on to it.
+      Registration registration = new Registration(this, key, foundProducers, foundHandlersMap);
+      registration.markUnregistered();
+      return registration;
+    }
 
-      final EventProducer producer = foundProducers.get(type);
-      EventProducer previousProducer = producersByType.putIfAbsent(type, producer);
-      //checking if the previous producer existed
-      if (previousProducer != null) {
-        throw new IllegalArgumentException("Producer method for type " + type
-          + " found on type " + producer.target.getClass()
-          + ", but already registered by type " + previousProducer.target.getClass() + ".");
-      }
-      Set<EventHandler> handlers = handlersByType.get(type);
+    putProducers(foundProducers);
+    for (Class<?> type : foundProducers.keySet()) {
+      EventProducer producer = foundProducers.get(type);
+      HandlerSet handlers = handlersByType.get(type);
       if (handlers != null && !handlers.isEmpty()) {
-        for (EventHandler handler : handlers) {
-          dispatchProducerResultToHandler(handler, producer);
-        }
+        dispatchProducerResultToHandlers(Arrays.asList(handlers.snapshot()), producer);
       }
     }
 
-    Map<Class<?>, Set<EventHandler>> foundHandlersMap = handlerFinder.findAllSubscribers(object);
     for (Class<?> type : foundHandlersMap.keySet()) {
-      Set<EventHandler> handlers = handlersByType.get(type);
+      HandlerSet handlers = handlersByType.get(type);
       if (handlers == null) {
         //concurrent put if absent
-        Set<EventHandler> handlersCreation = new CopyOnWriteArraySet<EventHandler>();
+        HandlerSet handlersCreation = new HandlerSet();
         handlers = handlersByType.putIfAbsent(type, handlersCreation);
         if (handlers == null) {
             handlers = handlersCreation;
@@ -222,40 +387,422 @@ public class Bus {
         throw new IllegalArgumentException("Object already registered.");
       }
     }
+    if (!foundHandlersMap.isEmpty()) {
+      handlersVersion.incrementAndGet();
+    }
+    // Record the handle before producers run, so that handlers may unregister the object.
+    Registration registration = new Registration(this, key, foundProducers, foundHandlersMap);
+    synchronized (registrations) {
+      record(registration);
+    }
 
     for (Map.Entry<Class<?>, Set<EventHandler>> entry : foundHandlersMap.entrySet()) {
       Class<?> type = entry.getKey();
+      replayToHandlers(type, entry.getValue());
       EventProducer producer = producersByType.get(type);
       if (producer != null && producer.isValid()) {
-        Set<EventHandler> foundHandlers = entry.getValue();
-        for (EventHandler foundHandler : foundHandlers) {
-          if (!producer.isValid()) {
-            break;
-          }
-          if (foundHandler.isValid()) {
-            dispatchProducerResultToHandler(foundHandler, producer);
-          }
+        dispatchProducerResultToHandlers(entry.getValue(), producer);
+      }
+      dispatchStickyEventToHandlers(type, entry.getValue());
+    }
+    return registration;
+  }
+
+  /**
+   * Registers every object in {@code objects}, like calling {@link #register(Object)} for each, but with less work for
+   * large batches.
+   *
+   * <p>All objects are scanned and checked before any is registered, so a batch which fails leaves the bus unchanged.
+   * Each event type's handlers are then updated once for the whole batch. Each producer whose events are due to new
+   * handlers is called once, and its event is delivered to all of them.
+   *
+   * @param objects objects whose handler methods should be registered.
+   * @throws IllegalArgumentException if an object is already registered or appears twice, a producer's type already
+   *     has one, or a handler needs the main thread and this bus has no main thread executor.
+   * @throws NullPointerException if the collection or any of its objects is null.
+   */
+  public void registerAll(Collection<?> objects) {
+    if (objects == null) {
+      throw new NullPointerException("Objects to register must not be null.");
+    }
+    enforcer.enforce(this);
+    purgeCollected();
+
+    Set<Object> scanned = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+    Map<Class<?>, EventProducer> foundProducers = new LinkedHashMap<Class<?>, EventProducer>();
+    Map<Class<?>, List<EventHandler>> foundHandlers = new LinkedHashMap<Class<?>, List<EventHandler>>();
+    List<Registration> found = new ArrayList<Registration>();
+    for (Object object : objects) {
+      if (object == null) {
+        throw new NullPointerException("Object to register must not be null.");
+      }
+      if (!scanned.add(object)) {
+        throw new IllegalArgumentException("Object already registered.");
+      }
+      checkNotRegistered(object);
+
+      Map<Class<?>, EventProducer> producersInListener = handlerFinder.findAllProducers(object);
+      checkDeferredProducers(producersInListener.values());
+      for (Map.Entry<Class<?>, EventProducer> entry : producersInListener.entrySet()) {
+        Class<?> type = entry.getKey();
+        EventProducer producer = entry.getValue();
+        EventProducer previousProducer = foundProducers.get(type);
+        if (previousProducer == null) {
+          previousProducer = producersByType.get(type);
+        }
+        if (previousProducer != null && previousProducer.getTarget() != null) {
+          throw duplicateProducer(type, producer, previousProducer);
+        }
+        foundProducers.put(type, producer);
+      }
+
+      Map<Class<?>, Set<EventHandler>> handlersInListener = handlerFinder.findAllSubscribers(object);
+      checkThreadModes(handlersInListener.values());
+      for (Map.Entry<Class<?>, Set<EventHandler>> entry : handlersInListener.entrySet()) {
+        Class<?> type = entry.getKey();
+        List<EventHandler> handlers = foundHandlers.get(type);
+        if (handlers == null) {
+          handlers = new ArrayList<EventHandler>();
+          foundHandlers.put(type, handlers);
+        }
+        handlers.addAll(entry.getValue());
+      }
+      if (!producersInListener.isEmpty() || !handlersInListener.isEmpty()) {
+        found.add(new Registration(this, object, producersInListener, handlersInListener));
+      }
+    }
+
+    putProducers(foundProducers);
+    for (Map.Entry<Class<?>, List<EventHandler>> entry : foundHandlers.entrySet()) {
+      HandlerSet handlers = handlersByType.get(entry.getKey());
+      if (handlers == null) {
+        HandlerSet handlersCreation = new HandlerSet();
+        handlers = handlersByType.putIfAbsent(entry.getKey(), handlersCreation);
+        if (handlers == null) {
+          handlers = handlersCreation;
+        }
+      }
+      handlers.addAll(entry.getValue());
+    }
+    if (!foundHandlers.isEmpty()) {
+      handlersVersion.incrementAndGet();
+    }
+    synchronized (registrations) {
+      for (Registration registration : found) {
+        record(registration);
+      }
+    }
+
+    // Replayed history comes before the current state from producers and sticky events.
+    for (Map.Entry<Class<?>, List<EventHandler>> entry : foundHandlers.entrySet()) {
+      replayToHandlers(entry.getKey(), entry.getValue());
+    }
+    // New producers feed every handler of their type, old and new; existing producers feed only the new handlers.
+    for (Map.Entry<Class<?>, EventProducer> entry : foundProducers.entrySet()) {
+      HandlerSet handlers = handlersByType.get(entry.getKey());
+      if (handlers != null && !handlers.isEmpty()) {
+        dispatchProducerResultToHandlers(Arrays.asList(handlers.snapshot()), entry.getValue());
+      }
+    }
+    for (Map.Entry<Class<?>, List<EventHandler>> entry : foundHandlers.entrySet()) {
+      dispatchStickyEventToHandlers(entry.getKey(), entry.getValue());
+      if (foundProducers.containsKey(entry.getKey())) {
+        continue;
+      }
+      EventProducer producer = producersByType.get(entry.getKey());
+      if (producer != null && producer.isValid()) {
+        dispatchProducerResultToHandlers(entry.getValue(), producer);
+      }
+    }
+  }
+
+  /** Delivers the events kept for replay of exactly {@code type}, oldest first, to each of {@code handlers}. */
+  private void replayToHandlers(Class<?> type, Collection<EventHandler> handlers) {
+    ReplayBuffer buffer = replayBuffers.get(type);
+    if (buffer == null) {
+      return;
+    }
+    for (Object event : buffer.toArray()) {
+      for (EventHandler handler : handlers) {
+        if (handler.isValid()) {
+          deliver(event, handler);
         }
       }
     }
   }
 
+  /** Delivers the sticky event of exactly {@code type}, if there is one, to each of {@code handlers}. */
+  private void dispatchStickyEventToHandlers(Class<?> type, Collection<EventHandler> handlers) {
+    Object event;
+    synchronized (stickyEvents) {
+      event = stickyEvents.get(type);
+    }
+    if (event == null) {
+      return;
+    }
+    for (EventHandler handler : handlers) {
+      if (handler.isValid()) {
+        deliver(event, handler);
+      }
+    }
+  }
+
+  /** Throws if any of {@code handlers} needs the main thread and this bus has no main thread executor. */
+  private void checkThreadModes(Collection<Set<EventHandler>> handlers) {
+    if (mainThreadExecutor != null) {
+      return;
+    }
+    for (Set<EventHandler> foundHandlers : handlers) {
+      for (EventHandler foundHandler : foundHandlers) {
+        if (foundHandler.threadMode == ThreadMode.MAIN) {
+          throw new IllegalArgumentException("Handler " + foundHandler + " requires the main thread, but " + this
+              + " has no main thread executor.");
+        }
+      }
+    }
+  }
+
+  /**
+   * Throws if any of {@code producers} defers its event and this bus has no main thread executor to deliver the event
+   * from once it has been resolved in the background.
+   */
+  private void checkDeferredProducers(Collection<EventProducer> producers) {
+    if (mainThreadExecutor != null) {
+      return;
+    }
+    for (EventProducer producer : producers) {
+      if (producer.deferred) {
+        throw new IllegalArgumentException("Producer " + producer + " defers its event, but " + this
+            + " has no main thread executor.");
+      }
+    }
+  }
+
+  /**
+   * Adds {@code producer} for {@code type} unless the type already has a producer, which is returned instead. A
+   * weakly registered producer which has been collected but not yet purged does not count.
+   */
+  private EventProducer putProducer(Class<?> type, EventProducer producer) {
+    while (true) {
+      EventProducer previousProducer = producersByType.putIfAbsent(type, producer);
+      if (previousProducer == null || previousProducer.getTarget() != null) {
+        return previousProducer;
+      }
+      producersByType.remove(type, previousProducer);
+    }
+  }
+
+  /**
+   * Adds every producer in {@code producers}, or none of them if any type already has a producer registered by
+   * someone else.
+   */
+  private void putProducers(Map<Class<?>, EventProducer> producers) {
+    List<Map.Entry<Class<?>, EventProducer>> added = new ArrayList<Map.Entry<Class<?>, EventProducer>>();
+    for (Map.Entry<Class<?>, EventProducer> entry : producers.entrySet()) {
+      EventProducer previousProducer = putProducer(entry.getKey(), entry.getValue());
+      if (previousProducer != null) {
+        for (Map.Entry<Class<?>, EventProducer> undo : added) {
+          producersByType.remove(undo.getKey(), undo.getValue());
+        }
+        throw duplicateProducer(entry.getKey(), entry.getValue(), previousProducer);
+      }
+      added.add(entry);
+    }
+  }
+
+  private static IllegalArgumentException duplicateProducer(Class<?> type, EventProducer producer,
+      EventProducer previousProducer) {
+    return new IllegalArgumentException("Producer method for type " + type
+        + " found on type " + producer.getTarget().getClass()
+        + ", but already registered by type " + previousProducer.getTarget().getClass() + ".");
+  }
+
+  private static Map<Class<?>, Set<EventHandler>> weakHandlers(Map<Class<?>, Set<EventHandler>> handlers,
+      WeakTarget weakTarget) {
+    Map<Class<?>, Set<EventHandler>> weakHandlers = new LinkedHashMap<Class<?>, Set<EventHandler>>();
+    for (Map.Entry<Class<?>, Set<EventHandler>> entry : handlers.entrySet()) {
+      Set<EventHandler> weakSet = new LinkedHashSet<EventHandler>();
+      for (EventHandler handler : entry.getValue()) {
+        weakSet.add(handler.withWeakTarget(weakTarget));
+      }
+      weakHandlers.put(entry.getKey(), weakSet);
+    }
+    return weakHandlers;
+  }
+
+  private static Map<Class<?>, EventProducer> weakProducers(Map<Class<?>, EventProducer> producers,
+      WeakTarget weakTarget) {
+    Map<Class<?>, EventProducer> weakProducers = new LinkedHashMap<Class<?>, EventProducer>();
+    for (Map.Entry<Class<?>, EventProducer> entry : producers.entrySet()) {
+      weakProducers.put(entry.getKey(), entry.getValue().withWeakTarget(weakTarget));
+    }
+    return weakProducers;
+  }
+
+  /**
+   * Calls {@code producer} once and delivers its event to each of {@code handlers}, or calls it once for each handler
+   * if it produces {@link Produce#perHandler() per handler}.
+   */
+  private void dispatchProducerResultToHandlers(Collection<EventHandler> handlers, EventProducer producer) {
+    if (producer.perHandler) {
+      for (EventHandler handler : handlers) {
+        if (!producer.isValid()) {
+          break;
+        }
+        if (handler.isValid()) {
+          dispatchProducerResultToHandler(handler, producer);
+        }
+      }
+      return;
+    }
+    Object event = produce(producer);
+    if (event != null) {
+      deliverProduced(event, handlers, producer);
+    }
+  }
+
   private void dispatchProducerResultToHandler(EventHandler handler, EventProducer producer) {
+    Object event = produce(producer);
+    if (event != null) {
+      deliverProduced(event, Collections.singletonList(handler), producer);
+    }
+  }
+
+  private static Object produce(EventProducer producer) {
     Object event = null;
     try {
       event = producer.produceEvent();
     } catch (InvocationTargetException e) {
       throwRuntimeException("Producer " + producer + " threw an exception.", e);
     }
-    if (event == null) {
+    return event;
+  }
+
+  /**
+   * Delivers what {@code producer} returned to {@code handlers}. The result of a deferred producer is resolved first:
+   * at once if it is a future which is already done, and otherwise on the background executor, after which the event
+   * is delivered from the main thread executor.
+   *
+   * <p>A background thread waits on a future for at most {@link #DEFERRED_POLL_MILLIS} at a time, and stops waiting
+   * once the producer or all of the handlers are unregistered. A failure is rethrown from the main thread executor,
+   * where the event would have been delivered.
+   */
+  private void deliverProduced(Object result, final Collection<EventHandler> handlers,
+      final EventProducer producer) {
+    if (!producer.deferred) {
+      deliverProducedEvent(result, handlers, producer);
+      return;
+    }
+    if (result instanceof Future && ((Future<?>) result).isDone()) {
+      Object event = resolve(result, producer);
+      if (event != null) {
+        deliverProducedEvent(event, handlers, producer);
+      }
       return;
     }
-    dispatch(event, handler);
+
+    final Object deferred = result;
+    backgroundExecutor.execute(new Runnable() {
+      @Override public void run() {
+        if (deferred instanceof Future && !awaitDone((Future<?>) deferred)) {
+          if (isWanted(handlers, producer)) {
+            backgroundExecutor.execute(this);
+          }
+          return;
+        }
+        final Object event;
+        try {
+          event = resolve(deferred, producer);
+        } catch (final RuntimeException e) {
+          mainThreadExecutor.execute(new Runnable() {
+            @Override public void run() {
+              throw e;
+            }
+          });
+          return;
+        }
+        if (event != null) {
+          mainThreadExecutor.execute(new Runnable() {
+            @Override public void run() {
+              deliverProducedEvent(event, handlers, producer);
+            }
+          });
+        }
+      }
+    });
+  }
+
+  /** Waits up to {@link #DEFERRED_POLL_MILLIS} for {@code future} to finish, returning false if it has not. */
+  private static boolean awaitDone(Future<?> future) {
+    try {
+      future.get(DEFERRED_POLL_MILLIS, TimeUnit.MILLISECONDS);
+      return true;
+    } catch (TimeoutException e) {
+      return false;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return true;
+    } catch (ExecutionException e) {
+      return true;
+    } catch (CancellationException e) {
+      return true;
+    }
+  }
+
+  /** Returns true while {@code producer} and at least one of {@code handlers} are still registered. */
+  private static boolean isWanted(Collection<EventHandler> handlers, EventProducer producer) {
+    if (!producer.isValid()) {
+      return false;
+    }
+    for (EventHandler handler : handlers) {
+      if (handler.isValid()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** Delivers {@code event} to each of {@code handlers} which is still registered, while {@code producer} is. */
+  private void deliverProducedEvent(Object event, Collection<EventHandler> handlers, EventProducer producer) {
+    for (EventHandler handler : handlers) {
+      if (!producer.isValid()) {
+        break;
+      }
+      if (handler.isValid()) {
+        deliver(event, handler);
+      }
+    }
+  }
+
+  /**
+   * Returns the value of a deferred producer's {@code result}, waiting for a future or calling a callable. Returns null
+   * if a future was cancelled or the wait was interrupted.
+   */
+  private static Object resolve(Object result, EventProducer producer) {
+    try {
+      if (result instanceof Future) {
+        return ((Future<?>) result).get();
+      }
+      return ((Callable<?>) result).call();
+    } catch (CancellationException e) {
+      return null;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return null;
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause() != null ? e.getCause() : e;
+      throw new RuntimeException("Producer " + producer + " failed: " + cause.getMessage(), cause);
+    } catch (Exception e) {
+      throw new RuntimeException("Producer " + producer + " threw an exception: " + e.getMessage(), e);
+    }
   }
 
   /**
    * Unregisters all producer and handler methods on a registered {@code object}.
    *
+   * <p>The handle returned when the object was registered knows exactly what to remove, so this is a lookup rather
+   * than another search of the object for annotated methods.
+   *
    * @param object object whose producer and handler methods should be unregistered.
    * @throws IllegalArgumentException if the object was not previously registered.
    * @throws NullPointerException if the object is null.
@@ -266,40 +813,230 @@ public class Bus {
     }
     enforcer.enforce(this);
 
-    Map<Class<?>, EventProducer> producersInListener = handlerFinder.findAllProducers(object);
-    for (Map.Entry<Class<?>, EventProducer> entry : producersInListener.entrySet()) {
-      final Class<?> key = entry.getKey();
-      EventProducer producer = getProducerForEventType(key);
-      EventProducer value = entry.getValue();
+    Registration registration;
+    synchronized (registrations) {
+      registration = findRegistration(object);
+    }
+    if (registration == null) {
+      checkNothingToUnregister(object);
+      return;
+    }
+    unregisterHandle(registration);
+  }
 
-      if (value == null || !value.equals(producer)) {
-        throw new IllegalArgumentException(
-            "Missing event producer for an annotated method. Is " + object.getClass()
-                + " registered?");
+  /** Undoes {@code registration} if it is still the current handle for its object. */
+  void unregisterHandle(Registration registration) {
+    enforcer.enforce(this);
+
+    synchronized (registrations) {
+      if (!forget(registration)) {
+        return;
       }
-      producersByType.remove(key).invalidate();
     }
+    removeRegistered(registration);
+    if (!registration.handlers.isEmpty()) {
+      handlersVersion.incrementAndGet();
+    }
+    unregistered(Collections.singletonList(registration));
+  }
 
-    Map<Class<?>, Set<EventHandler>> handlersInListener = handlerFinder.findAllSubscribers(object);
-    for (Map.Entry<Class<?>, Set<EventHandler>> entry : handlersInListener.entrySet()) {
-      Set<EventHandler> currentHandlers = getHandlersForEventType(entry.getKey());
-      Collection<EventHandler> eventMethodsInListener = entry.getValue();
+  /**
+   * Unregisters every object in {@code objects}, like calling {@link #unregister(Object)} for each, but updating each
+   * event type's handlers once for the whole batch.
+   *
+   * <p>All objects are checked before any is unregistered, so a batch which fails leaves the bus unchanged.
+   *
+   * @param objects objects whose producer and handler methods should be unregistered.
+   * @throws IllegalArgumentException if an object was not previously registered or appears twice.
+   * @throws NullPointerException if the collection or any of its objects is null.
+   */
+  public void unregisterAll(Collection<?> objects) {
+    if (objects == null) {
+      throw new NullPointerException("Objects to unregister must not be null.");
+    }
+    enforcer.enforce(this);
 
-      if (currentHandlers == null || !currentHandlers.containsAll(eventMethodsInListener)) {
-        throw new IllegalArgumentException(
-            "Missing event handler for an annotated method. Is " + object.getClass()
-                + " registered?");
+    Set<Object> scanned = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+    for (Object object : objects) {
+      if (object == null) {
+        throw new NullPointerException("Object to unregister must not be null.");
       }
+      if (!scanned.add(object)) {
+        throw new IllegalArgumentException(object.getClass() + " appears more than once.");
+      }
+    }
 
-      for (EventHandler handler : currentHandlers) {
-        if (eventMethodsInListener.contains(handler)) {
-          handler.invalidate();
+    List<Registration> found = new ArrayList<Registration>();
+    synchronized (registrations) {
+      for (Object object : objects) {
+        Registration registration = findRegistration(object);
+        if (registration == null) {
+          checkNothingToUnregister(object);
+        } else {
+          found.add(registration);
         }
       }
-      currentHandlers.removeAll(eventMethodsInListener);
+      for (Registration registration : found) {
+        forget(registration);
+      }
+    }
+
+    Map<Class<?>, List<EventHandler>> handlersToRemove = new LinkedHashMap<Class<?>, List<EventHandler>>();
+    for (Registration registration : found) {
+      registration.markUnregistered();
+      removeProducers(registration);
+      for (Map.Entry<Class<?>, Set<EventHandler>> entry : registration.handlers.entrySet()) {
+        List<EventHandler> handlers = handlersToRemove.get(entry.getKey());
+        if (handlers == null) {
+          handlers = new ArrayList<EventHandler>();
+          handlersToRemove.put(entry.getKey(), handlers);
+        }
+        handlers.addAll(entry.getValue());
+      }
+    }
+    for (Map.Entry<Class<?>, List<EventHandler>> entry : handlersToRemove.entrySet()) {
+      removeHandlers(entry.getKey(), entry.getValue());
+    }
+    if (!handlersToRemove.isEmpty()) {
+      handlersVersion.incrementAndGet();
+    }
+    unregistered(found);
+  }
+
+  /**
+   * Called once {@code registrations} have been undone, to drop state kept for each registered object. Such state
+   * should be keyed by {@link EventHandler#target}, which matches each registration's key. Subclasses which override
+   * this must call through.
+   */
+  void unregistered(Collection<Registration> registrations) {
+    synchronized (backgroundQueues) {
+      for (Registration registration : registrations) {
+        backgroundQueues.remove(registration.key);
+      }
+    }
+    synchronized (pendingMainDeliveries) {
+      for (Registration registration : registrations) {
+        pendingMainDeliveries.remove(registration.key);
+      }
     }
   }
 
+  /**
+   * Returns the queue of {@code wrapper}'s subscriber for background handlers, creating it if needed, or null if the
+   * handler has been unregistered. Handlers are invalidated before their queues are dropped, so checking under the
+   * same lock keeps a delivery racing with unregistration from creating a queue which would never be dropped.
+   */
+  private SerialExecutor getBackgroundQueue(EventHandler wrapper) {
+    synchronized (backgroundQueues) {
+      if (!wrapper.isValid()) {
+        return null;
+      }
+      SerialExecutor queue = backgroundQueues.get(wrapper.target);
+      if (queue == null) {
+        queue = new SerialExecutor(backgroundExecutor);
+        backgroundQueues.put(wrapper.target, queue);
+      }
+      return queue;
+    }
+  }
+
+  /** Unregisters each weakly registered object which has been garbage collected since the last purge. */
+  private void purgeCollected() {
+    Reference<?> collected;
+    while ((collected = collectedTargets.poll()) != null) {
+      Registration registration;
+      synchronized (registrations) {
+        registration = weakRegistrations.get(collected);
+      }
+      if (registration != null) {
+        unregisterHandle(registration);
+      }
+    }
+  }
+
+  /** Throws if {@code object} is registered on this bus, strongly or weakly. */
+  private void checkNotRegistered(Object object) {
+    synchronized (registrations) {
+      // Weak handlers never equal strong ones, so the handler sets alone cannot catch an object registered both ways.
+      if (findRegistration(object) != null) {
+        throw new IllegalArgumentException("Object already registered.");
+      }
+    }
+  }
+
+  /** Returns the current handle for {@code object}, or null. Must hold the {@link #registrations} lock. */
+  private Registration findRegistration(Object object) {
+    Registration registration = registrations.get(object);
+    if (registration == null && !weakRegistrations.isEmpty()) {
+      registration = weakRegistrations.get(new WeakTarget(object, null));
+    }
+    return registration;
+  }
+
+  /** Makes {@code registration} the current handle for its object. Must hold the {@link #registrations} lock. */
+  private void record(Registration registration) {
+    if (registration.key instanceof WeakTarget) {
+      weakRegistrations.put((WeakTarget) registration.key, registration);
+    } else {
+      registrations.put(registration.key, registration);
+    }
+  }
+
+  /**
+   * Forgets {@code registration} if it is the current handle for its object. Must hold the {@link #registrations}
+   * lock.
+   *
+   * @return true if the registration was forgotten by this call.
+   */
+  private boolean forget(Registration registration) {
+    Map<?, Registration> current = registration.key instanceof WeakTarget ? weakRegistrations : registrations;
+    if (current.get(registration.key) != registration) {
+      return false;
+    }
+    current.remove(registration.key);
+    return true;
+  }
+
+  /** Throws if {@code object}, which has no registration, has annotated methods that should have been registered. */
+  private void checkNothingToUnregister(Object object) {
+    if (!handlerFinder.findAllProducers(object).isEmpty()) {
+      throw new IllegalArgumentException(
+          "Missing event producer for an annotated method. Is " + object.getClass() + " registered?");
+    }
+    if (!handlerFinder.findAllSubscribers(object).isEmpty()) {
+      throw new IllegalArgumentException(
+          "Missing event handler for an annotated method. Is " + object.getClass() + " registered?");
+    }
+  }
+
+  /** Removes and invalidates the producers and handlers of {@code registration}, which is no longer recorded. */
+  private void removeRegistered(Registration registration) {
+    registration.markUnregistered();
+    removeProducers(registration);
+    for (Map.Entry<Class<?>, Set<EventHandler>> entry : registration.handlers.entrySet()) {
+      removeHandlers(entry.getKey(), entry.getValue());
+    }
+  }
+
+  private void removeProducers(Registration registration) {
+    for (Map.Entry<Class<?>, EventProducer> entry : registration.producers.entrySet()) {
+      EventProducer producer = entry.getValue();
+      producersByType.remove(entry.getKey(), producer);
+      producer.invalidate();
+    }
+  }
+
+  private void removeHandlers(Class<?> type, Collection<EventHandler> handlers) {
+    for (EventHandler handler : handlers) {
+      handler.invalidate();
+    }
+    HandlerSet currentHandlers = handlersByType.get(type);
+    if (currentHandlers != null) {
+      currentHandlers.removeAll(handlers);
+    }
+  }
+
+
   /**
    * Posts an event to all registered handlers.  This method will return successfully after the event has been posted to
    * all handlers, and regardless of any exceptions thrown by handlers.
@@ -315,34 +1052,313 @@ public class Bus {
       throw new NullPointerException("Event to post must not be null.");
     }
     enforcer.enforce(this);
+    purgeCollected();
 
-    Set<Class<?>> dispatchTypes = flattenHierarchy(event.getClass());
+    DispatchPlan plan = getDispatchPlan(event.getClass());
+    if (plan.replays.length != 0) {
+      recordForReplay(event, plan.replays);
+    }
+    EventHandler[] wrappers = plan.handlers;
+    if (wrappers.length == 0) {
+      if (!(event instanceof DeadEvent)) {
+        post(new DeadEvent(this, event));
+      }
+      return;
+    }
 
-    boolean dispatched = false;
-    for (Class<?> eventType : dispatchTypes) {
-      Set<EventHandler> wrappers = getHandlersForEventType(eventType);
+    DispatchQueue queue = dispatchQueue.get();
+    if (queueHooksOverridden) {
+      enqueuePost(event, wrappers, queue);
+      dispatchQueuedEvents();
+      return;
+    }
+    if (queue.dispatching) {
+      // Posted from within a handler. Queue the event so that it is delivered only once the event currently being
+      // dispatched has reached all of its handlers.
+      queueEvent(event, wrappers, queue);
+      return;
+    }
 
-      if (wrappers != null && !wrappers.isEmpty()) {
-        dispatched = true;
-        for (EventHandler wrapper : wrappers) {
-          enqueueEvent(event, wrapper);
+    queue.dispatching = true;
+    try {
+      deliverAndDrain(event, wrappers, queue);
+    } finally {
+      queue.dispatching = false;
+      queue.delivering = null;
+      queue.canceled = false;
+    }
+  }
+
+  /**
+   * Posts each of {@code events} to all registered handlers, exactly as if {@link #post(Object)} were called for each
+   * in turn. Each handler sees the events in collection order, and events posted by handlers are delivered before
+   * the next event in the collection.
+   *
+   * <p>The thread enforcer runs once for the whole batch, and consecutive events of the same class share a single
+   * handler lookup. Events without handlers are wrapped in a {@link DeadEvent} only if something handles dead events.
+   *
+   * @param events events to post.
+   * @throws NullPointerException if the collection or any of its events is null. No events are posted in this case.
+   */
+  public void postAll(Collection<?> events) {
+    if (events == null) {
+      throw new NullPointerException("Events to post must not be null.");
+    }
+    for (Object event : events) {
+      if (event == null) {
+        throw new NullPointerException("Event to post must not be null.");
+      }
+    }
+    enforcer.enforce(this);
+    purgeCollected();
+
+    DispatchQueue queue = dispatchQueue.get();
+    boolean draining = !queue.dispatching && !queueHooksOverridden;
+    if (draining) {
+      queue.dispatching = true;
+    }
+    try {
+      Class<?> planType = null;
+      DispatchPlan plan = null;
+      DispatchPlan deadEventPlan = null;
+      for (Object event : events) {
+        Class<?> type = event.getClass();
+        if (type != planType || plan.version != handlersVersion.get()) {
+          planType = type;
+          plan = getDispatchPlan(type);
         }
+        if (plan.replays.length != 0) {
+          recordForReplay(event, plan.replays);
+        }
+        Object delivered = event;
+        EventHandler[] wrappers = plan.handlers;
+        if (wrappers.length == 0) {
+          if (event instanceof DeadEvent) {
+            continue;
+          }
+          if (deadEventPlan == null || deadEventPlan.version != handlersVersion.get()) {
+            deadEventPlan = getDispatchPlan(DeadEvent.class);
+          }
+          wrappers = deadEventPlan.handlers;
+          if (wrappers.length == 0 && deadEventPlan.replays.length == 0) {
+            continue;
+          }
+          delivered = new DeadEvent(this, event);
+          if (deadEventPlan.replays.length != 0) {
+            recordForReplay(delivered, deadEventPlan.replays);
+          }
+          if (wrappers.length == 0) {
+            continue;
+          }
+        }
+
+        if (queueHooksOverridden) {
+          enqueuePost(delivered, wrappers, queue);
+          dispatchQueuedEvents();
+        } else if (draining) {
+          deliverAndDrain(delivered, wrappers, queue);
+        } else {
+          queueEvent(delivered, wrappers, queue);
+        }
+      }
+    } finally {
+      if (draining) {
+        queue.dispatching = false;
+        queue.delivering = null;
+        queue.canceled = false;
       }
     }
+  }
+
+  /**
+   * Posts each of {@code events} to all registered handlers, in order.
+   *
+   * @param events events to post.
+   * @throws NullPointerException if any of the events is null. No events are posted in this case.
+   * @see #postAll(Collection)
+   */
+  public void postAll(Object... events) {
+    if (events == null) {
+      throw new NullPointerException("Events to post must not be null.");
+    }
+    postAll(Arrays.asList(events));
+  }
 
-    if (!dispatched && !(event instanceof DeadEvent)) {
-      post(new DeadEvent(this, event));
+  /**
+   * Posts {@code event} like {@link #post(Object)}, and keeps it as the sticky event of its class. Handlers for
+   * exactly that class which are registered later receive it during registration, just as if a producer had
+   * produced it, until another sticky event of the class replaces it or it is removed.
+   *
+   * <p>The bus keeps sticky events for a bounded number of classes. Once full, posting a sticky event of a new class
+   * evicts the sticky event of the class which was least recently posted, delivered to a new handler or read.
+   *
+   * @param event event to post.
+   * @throws NullPointerException if the event is null.
+   */
+  public void postSticky(Object event) {
+    if (event == null) {
+      throw new NullPointerException("Event to post must not be null.");
+    }
+    enforcer.enforce(this);
+    synchronized (stickyEvents) {
+      stickyEvents.put(event.getClass(), event);
     }
+    post(event);
+  }
 
-    dispatchQueuedEvents();
+  /**
+   * Returns the sticky event of exactly {@code type}, or null if there is none.
+   *
+   * @param type class of the sticky event.
+   */
+  public <T> T getStickyEvent(Class<T> type) {
+    synchronized (stickyEvents) {
+      return type.cast(stickyEvents.get(type));
+    }
+  }
+
+  /**
+   * Removes the sticky event of exactly {@code type}, so that handlers registered later do not receive it.
+   *
+   * @param type class of the sticky event.
+   * @return the removed event, or null if there was none.
+   */
+  public <T> T removeStickyEvent(Class<T> type) {
+    synchronized (stickyEvents) {
+      return type.cast(stickyEvents.remove(type));
+    }
+  }
+
+  /** Removes every sticky event. */
+  public void removeAllStickyEvents() {
+    synchronized (stickyEvents) {
+      stickyEvents.clear();
+    }
+  }
+
+  /**
+   * Keeps the last {@code size} events posted which are assignable to {@code type}, and replays them, oldest first,
+   * to each handler of exactly {@code type} registered afterwards. Replayed events are delivered during registration,
+   * before any event from a producer or sticky event.
+   *
+   * <p>Events are recorded by {@link #post(Object)} and {@link #postAll(Collection)} whether or not any handler
+   * receives them. Posting events of types without replay enabled costs nothing extra. Enabling replay again for the
+   * same type changes its size in place, keeping the most recent events which still fit, so no event posted meanwhile
+   * is lost.
+   *
+   * @param type type whose events should be kept.
+   * @param size number of events to keep.
+   * @throws IllegalArgumentException if {@code size} is less than 1.
+   * @throws NullPointerException if the type is null.
+   */
+  public void enableReplay(Class<?> type, int size) {
+    if (type == null) {
+      throw new NullPointerException("Type must not be null.");
+    }
+    if (size < 1) {
+      throw new IllegalArgumentException("Replay size must be at least 1 but was " + size + ".");
+    }
+    enforcer.enforce(this);
+
+    ReplayBuffer previous = replayBuffers.putIfAbsent(type, new ReplayBuffer(size));
+    if (previous != null) {
+      // Posts record under the buffer's lock, so resizing it rather than replacing it cannot lose their events.
+      previous.resize(size);
+      return;
+    }
+    handlersVersion.incrementAndGet();
+  }
+
+  /**
+   * Stops keeping events for replay to handlers of {@code type} and discards those already kept.
+   *
+   * @param type type previously passed to {@link #enableReplay(Class, int)}.
+   */
+  public void disableReplay(Class<?> type) {
+    enforcer.enforce(this);
+    if (replayBuffers.remove(type) != null) {
+      handlersVersion.incrementAndGet();
+    }
+  }
+
+  /** Adds {@code event} to each of {@code buffers}. */
+  private static void recordForReplay(Object event, ReplayBuffer[] buffers) {
+    for (ReplayBuffer buffer : buffers) {
+      buffer.add(event);
+    }
+  }
+
+  /**
+   * Stops {@code event} from reaching any more handlers. Handlers after the caller, which have a lower priority or the
+   * same priority and were registered later, do not receive it.
+   *
+   * <p>Must be called by a {@link ThreadMode#POSTING} handler of {@code event} while it is handling the event.
+   *
+   * @param event the event being handled.
+   * @throws IllegalStateException if {@code event} is not being delivered to a handler on the calling thread.
+   * @throws NullPointerException if the event is null.
+   */
+  public void cancelEventDelivery(Object event) {
+    if (event == null) {
+      throw new NullPointerException("Event to cancel must not be null.");
+    }
+    DispatchQueue queue = dispatchQueue.get();
+    if (queue.delivering != event) {
+      throw new IllegalStateException("Event " + event + " is not being delivered to a handler on this thread.");
+    }
+    queue.canceled = true;
+  }
+
+  /** Adds {@code event} to {@code queue} once for each of {@code wrappers}, as one post. */
+  private static void queueEvent(Object event, EventHandler[] wrappers, DispatchQueue queue) {
+    boolean startsPost = true;
+    for (EventHandler wrapper : wrappers) {
+      if (queue.offer(event, wrapper, startsPost)) {
+        startsPost = false;
+      }
+    }
+  }
+
+  /** Delivers {@code event} to {@code wrappers}, then everything it caused to be queued. Queue must be dispatching. */
+  private void deliverAndDrain(Object event, EventHandler[] wrappers, DispatchQueue queue) {
+    if (queue.isEmpty()) {
+      // Nothing is queued ahead of this event, so deliver it directly.
+      queue.delivering = event;
+      for (EventHandler wrapper : wrappers) {
+        if (wrapper.isValid()) {
+          deliver(event, wrapper);
+          if (queue.canceled) {
+            queue.canceled = false;
+            break;
+          }
+        }
+      }
+      queue.delivering = null;
+    } else {
+      // Events left behind by a handler which threw must be delivered first.
+      queueEvent(event, wrappers, queue);
+    }
+    drainQueue(queue);
+  }
+
+  /** Queues {@code event} for each of {@code wrappers} through {@link #enqueueEvent}, as one post. */
+  private void enqueuePost(Object event, EventHandler[] wrappers, DispatchQueue queue) {
+    long first = queue.tailPosition();
+    for (EventHandler wrapper : wrappers) {
+      enqueueEvent(event, wrapper);
+    }
+    queue.joinPost(first);
   }
 
   /**
    * Queue the {@code event} for dispatch during {@link #dispatchQueuedEvents()}. Events are queued in-order of
    * occurrence so they can be dispatched in the same order.
+   *
+   * <p>A bus delivers events directly, without calling this method or {@link #dispatchQueuedEvents()}, unless its
+   * class overrides one of them. Subclasses which override either receive every post through both, as before.
    */
   protected void enqueueEvent(Object event, EventHandler handler) {
-    eventsToDispatch.get().offer(new EventWithHandler(event, handler));
+    dispatchQueue.get().offer(event, handler);
   }
 
   /**
@@ -350,26 +1366,80 @@ public class Bus {
    * the queue.
    */
   protected void dispatchQueuedEvents() {
+    DispatchQueue queue = dispatchQueue.get();
     // don't dispatch if we're already dispatching, that would allow reentrancy and out-of-order events. Instead, leave
     // the events to be dispatched after the in-progress dispatch is complete.
-    if (isDispatching.get()) {
+    if (queue.dispatching) {
       return;
     }
 
-    isDispatching.set(true);
+    queue.dispatching = true;
     try {
-      while (true) {
-        EventWithHandler eventWithHandler = eventsToDispatch.get().poll();
-        if (eventWithHandler == null) {
-          break;
+      drainQueue(queue);
+    } finally {
+      queue.dispatching = false;
+      queue.delivering = null;
+      queue.canceled = false;
+    }
+  }
+
+  /** Returns true if {@code busClass} overrides {@link #enqueueEvent} or {@link #dispatchQueuedEvents()}. */
+  private static boolean overridesQueueHooks(Class<?> busClass) {
+    for (Class<?> c = busClass; c != Bus.class; c = c.getSuperclass()) {
+      for (Method method : c.getDeclaredMethods()) {
+        String name = method.getName();
+        Class<?>[] parameterTypes = method.getParameterTypes();
+        if (("dispatchQueuedEvents".equals(name) && parameterTypes.length == 0)
+            || ("enqueueEvent".equals(name) && Arrays.equals(parameterTypes, QUEUE_HOOK_PARAMETERS))) {
+          return true;
         }
+      }
+    }
+    return false;
+  }
+
+  /** Dispatches every entry in {@code queue}, including those added while draining it. */
+  private void drainQueue(DispatchQueue queue) {
+    while (!queue.isEmpty()) {
+      Object event = queue.headEvent();
+      EventHandler handler = queue.headHandler();
+      queue.removeHead();
 
-        if (eventWithHandler.handler.isValid()) {
-          dispatch(eventWithHandler.event, eventWithHandler.handler);
+      if (handler.isValid()) {
+        queue.delivering = event;
+        deliver(event, handler);
+        queue.delivering = null;
+        if (queue.canceled) {
+          queue.canceled = false;
+          // The rest of a post's entries directly follow its first, ahead of anything its handlers posted.
+          while (!queue.isEmpty() && !queue.headStartsPost()) {
+            queue.removeHead();
+          }
         }
       }
-    } finally {
-      isDispatching.set(false);
+    }
+  }
+
+  /** Dispatches {@code event} to {@code wrapper} now, or hands it to the executor for the handler's thread mode. */
+  private void deliver(Object event, EventHandler wrapper) {
+    ThreadMode threadMode = wrapper.threadMode;
+    if (threadMode == ThreadMode.POSTING) {
+      dispatch(event, wrapper);
+    } else if (threadMode == ThreadMode.MAIN) {
+      if (mainThreadExecutor instanceof MainThreadExecutor) {
+        deliverOnMain(event, wrapper, (MainThreadExecutor) mainThreadExecutor);
+      } else {
+        mainThreadExecutor.execute(new Delivery(event, wrapper));
+      }
+    } else if (threadMode == ThreadMode.BACKGROUND) {
+      SerialExecutor queue = getBackgroundQueue(wrapper);
+      if (queue != null) {
+        queue.execute(new Delivery(event, wrapper));
+      }
+    } else if (threadMode == ThreadMode.VIRTUAL) {
+      VirtualThreads.executor().execute(new Delivery(event, wrapper));
+    } else {
+      backgroundExecutor.execute(new Delivery(event, wrapper));
     }
   }
 
@@ -377,6 +1447,9 @@ public class Bus {
    * Dispatches {@code event} to the handler in {@code wrapper}.  This method is an appropriate override point for
    * subclasses that wish to make event delivery asynchronous.
    *
+   * <p>Handlers which are not in {@link ThreadMode#POSTING} mode are dispatched through this method on the executor
+   * for their thread mode.
+   *
    * @param event event to dispatch.
    * @param wrapper wrapper that will call the handler.
    */
@@ -411,9 +1484,59 @@ public class Bus {
     return handlersByType.get(type);
   }
 
+  /**
+   * Returns the handlers for every type in {@code concreteClass}'s hierarchy in the order they are called, rebuilding
+   * the cached plan if handlers have been registered or unregistered since it was made.
+   *
+   * @param concreteClass class of a posted event.
+   * @return a plan whose handlers should each receive the event.
+   */
+  DispatchPlan getDispatchPlan(Class<?> concreteClass) {
+    int version = handlersVersion.get();
+    DispatchPlan plan = dispatchPlans.get(concreteClass);
+    if (plan == null || plan.version != version) {
+      List<EventHandler> handlers = new ArrayList<EventHandler>();
+      for (Class<?> eventType : flattenHierarchy(concreteClass)) {
+        HandlerSet wrappers = handlersByType.get(eventType);
+        if (wrappers != null) {
+          Collections.addAll(handlers, wrappers.snapshot());
+        }
+      }
+      EventHandler[] planned = handlers.toArray(new EventHandler[handlers.size()]);
+      // Each type's handlers are already in priority order, so only a hierarchy mixing priorities needs sorting.
+      for (int i = 1; i < planned.length; i++) {
+        if (planned[i - 1].priority < planned[i].priority) {
+          Arrays.sort(planned, EventHandler.PRIORITY_ORDER);
+          break;
+        }
+      }
+      plan = new DispatchPlan(version, planned, findReplayBuffers(concreteClass));
+      dispatchPlans.put(concreteClass, plan);
+    }
+    return plan;
+  }
+
+  /** Returns the buffers which record events of {@code concreteClass}: those of each type it is assignable to. */
+  private ReplayBuffer[] findReplayBuffers(Class<?> concreteClass) {
+    if (replayBuffers.isEmpty()) {
+      return DispatchPlan.NO_REPLAYS;
+    }
+    List<ReplayBuffer> buffers = new ArrayList<ReplayBuffer>();
+    for (Class<?> eventType : flattenHierarchy(concreteClass)) {
+      ReplayBuffer buffer = replayBuffers.get(eventType);
+      if (buffer != null) {
+        buffers.add(buffer);
+      }
+    }
+    return buffers.isEmpty() ? DispatchPlan.NO_REPLAYS : buffers.toArray(new ReplayBuffer[buffers.size()]);
+  }
+
   /**
    * Flattens a class's type hierarchy into a set of Class objects.  The set will include all superclasses
-   * (transitively), and all interfaces implemented by these superclasses.
+   * (transitively), and all interfaces implemented by these superclasses or extended by those interfaces.
+   *
+   * <p>The set iterates over {@code concreteClass} and its superclasses, nearest first, followed by the interfaces in
+   * breadth-first order. It is resolved once per class and cached.
    *
    * @param concreteClass class whose type hierarchy will be retrieved.
    * @return {@code concreteClass}'s complete type hierarchy, flattened and uniqued.
@@ -432,21 +1555,23 @@ public class Bus {
   }
 
   private Set<Class<?>> getClassesFor(Class<?> concreteClass) {
-    List<Class<?>> parents = new LinkedList<Class<?>>();
-    Set<Class<?>> classes = new HashSet<Class<?>>();
-
-    parents.add(concreteClass);
-
-    while (!parents.isEmpty()) {
-      Class<?> clazz = parents.remove(0);
+    Set<Class<?>> classes = new LinkedHashSet<Class<?>>();
+    for (Class<?> clazz = concreteClass; clazz != null; clazz = clazz.getSuperclass()) {
       classes.add(clazz);
+    }
 
-      Class<?> parent = clazz.getSuperclass();
-      if (parent != null) {
-        parents.add(parent);
+    List<Class<?>> interfaces = new ArrayList<Class<?>>();
+    for (Class<?> clazz : classes) {
+      Collections.addAll(interfaces, clazz.getInterfaces());
+    }
+    // The list grows as it is walked, so each interface's superinterfaces are visited after it.
+    for (int i = 0; i < interfaces.size(); i++) {
+      Class<?> type = interfaces.get(i);
+      if (classes.add(type)) {
+        Collections.addAll(interfaces, type.getInterfaces());
       }
     }
-    return classes;
+    return Collections.unmodifiableSet(classes);
   }
 
   /**
@@ -466,14 +1591,122 @@ public class Bus {
   private final ConcurrentMap<Class<?>, Set<Class<?>>> flattenHierarchyCache =
       new ConcurrentHashMap<Class<?>, Set<Class<?>>>();
 
-  /** Simple struct representing an event and its handler. */
-  static class EventWithHandler {
-    final Object event;
-    final EventHandler handler;
+  /** Creates each thread's queue. Static so that the thread local holds no reference to its bus. */
+  private static final class DispatchQueueThreadLocal extends ThreadLocal<DispatchQueue> {
+    @Override protected DispatchQueue initialValue() {
+      return new DispatchQueue();
+    }
+  }
+
+  /**
+   * Immutable list of the handlers for one concrete event class in call order, valid while the handlers version is
+   * unchanged.
+   */
+  static final class DispatchPlan {
+    static final ReplayBuffer[] NO_REPLAYS = new ReplayBuffer[0];
+
+    final int version;
+    final EventHandler[] handlers;
+    /** Buffers to record each posted event in, empty unless replay is enabled for a type in its hierarchy. */
+    final ReplayBuffer[] replays;
+
+    DispatchPlan(int version, EventHandler[] handlers, ReplayBuffer[] replays) {
+      this.version = version;
+      this.handlers = handlers;
+      this.replays = replays;
+    }
+  }
+
+  /** Sticky events by class, evicting the least recently used class beyond its capacity. */
+  private static final class StickyEvents extends LinkedHashMap<Class<?>, Object> {
+    private static final int INITIAL_CAPACITY = 16;
+    private static final float LOAD_FACTOR = 0.75f;
+
+    private final int capacity;
+
+    StickyEvents(int capacity) {
+      super(INITIAL_CAPACITY, LOAD_FACTOR, true);
+      this.capacity = capacity;
+    }
+
+    @Override protected boolean removeEldestEntry(Map.Entry<Class<?>, Object> eldest) {
+      return size() > capacity;
+    }
+  }
+
+  /**
+   * Dispatches {@code event} to {@code wrapper} now if this is the main thread and its subscriber has no earlier event
+   * waiting on {@code executor}, and otherwise hands it to the executor.
+   */
+  private void deliverOnMain(Object event, EventHandler wrapper, MainThreadExecutor executor) {
+    boolean direct = executor.isMainThread();
+    synchronized (pendingMainDeliveries) {
+      // Checked under the lock which unregistered() holds to drop counts, so no count outlives its subscriber.
+      if (!wrapper.isValid()) {
+        return;
+      }
+      Integer pending = pendingMainDeliveries.get(wrapper.target);
+      if (pending != null || !direct) {
+        direct = false;
+        pendingMainDeliveries.put(wrapper.target, pending == null ? 1 : pending + 1);
+      }
+    }
+    if (direct) {
+      dispatch(event, wrapper);
+    } else {
+      executor.execute(new Delivery(event, wrapper));
+    }
+  }
 
-    public EventWithHandler(Object event, EventHandler handler) {
+  /** Counts one delivery for {@code wrapper}'s subscriber, handed to a {@link MainThreadExecutor}, as finished. */
+  private void mainDeliveryFinished(EventHandler wrapper) {
+    synchronized (pendingMainDeliveries) {
+      // Once unregistered, the count has been dropped and may belong to a later registration of the same object.
+      if (!wrapper.isValid()) {
+        return;
+      }
+      Integer pending = pendingMainDeliveries.get(wrapper.target);
+      if (pending == null || pending == 1) {
+        pendingMainDeliveries.remove(wrapper.target);
+      } else {
+        pendingMainDeliveries.put(wrapper.target, pending - 1);
+      }
+    }
+  }
+
+  /** A delivery handed to the executor for a handler's thread mode. */
+  private final class Delivery implements Runnable {
+    private final Object event;
+    private final EventHandler wrapper;
+
+    Delivery(Object event, EventHandler wrapper) {
       this.event = event;
-      this.handler = handler;
+      this.wrapper = wrapper;
     }
+
+    @Override public void run() {
+      try {
+        if (wrapper.isValid()) {
+          dispatch(event, wrapper);
+        }
+      } finally {
+        if (wrapper.threadMode == ThreadMode.MAIN && mainThreadExecutor instanceof MainThreadExecutor) {
+          mainDeliveryFinished(wrapper);
+        }
+      }
+    }
+  }
+
+  /** Holds the shared pool of daemon threads for buses without a background executor. */
+  private static final class DefaultBackgroundPool {
+    static final Executor INSTANCE = Executors.newCachedThreadPool(new ThreadFactory() {
+      private final AtomicInteger count = new AtomicInteger();
+
+      @Override public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "Otto-Background-" + count.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
   }
 }
@@ -0,0 +1,33 @@
+/*
+ * Copyright (C) 2015 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.squareup.otto;
+
+/**
+ * An event of which only the latest value matters, such as a snapshot of some state.
+ *
+ * <p>When a conflatable event is queued for a handler which already has an undelivered event with an equal
+ * {@link #conflationKey()}, the queued event is replaced and the handler receives only the newer one, at the older
+ * one's place in the queue. This applies to events queued while a thread is dispatching and to {@link AsyncBus}
+ * mailboxes. Events delivered directly by {@link Bus#post(Object)} are never conflated, since nothing is waiting.
+ */
+public interface Conflatable {
+  /**
+   * Returns the key of the state this event describes, or null to never conflate this event. Return a constant, such
+   * as the event's class, to keep only the latest event of a type. The key must not change while the event is queued.
+   */
+  Object conflationKey();
+}
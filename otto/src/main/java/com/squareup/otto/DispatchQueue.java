@@ -0,0 +1,228 @@
+/*
+ * Copyright (C) 2015 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.squareup.otto;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * First-in first-out queue of events and the handlers they are to be dispatched to, confined to a single thread.
+ * Along with whether that thread is currently dispatching, this is all of a thread's dispatch state for one bus.
+ *
+ * <p>Entries are stored in a pair of ring buffers which are reused for the life of the queue and doubled in size
+ * when full, so that steady-state use allocates nothing. Slots are cleared as soon as their entry is removed so that
+ * queued events and handlers are not retained. Once a burst has grown the buffers past {@link #MAX_RETAINED_CAPACITY},
+ * they are replaced with small ones as soon as the queue drains, so that an idle thread does not keep them.
+ *
+ * <p>Each entry records whether it is the first of its post, so that the entries left when a handler cancels the event
+ * can be skipped.
+ *
+ * <p>A {@link Conflatable} event replaces any queued event with the same handler and conflation key. Queues which
+ * never see such an event never allocate the index this requires.
+ */
+final class DispatchQueue {
+  private static final int INITIAL_CAPACITY = 16;
+  /** Largest capacity kept once the queue is empty. */
+  static final int MAX_RETAINED_CAPACITY = 256;
+
+  private Object[] events = new Object[INITIAL_CAPACITY];
+  private EventHandler[] handlers = new EventHandler[INITIAL_CAPACITY];
+  private boolean[] startsPost = new boolean[INITIAL_CAPACITY];
+  /** Index of the first entry. */
+  private int head;
+  /** Number of entries. */
+  private int size;
+  /** Number of entries ever removed, which is the position of the first entry. */
+  private long removed;
+  /** Position of the queued entry for each handler and conflation key. Created for the first conflatable event. */
+  private Map<ConflationKey, Long> conflated;
+  /** True while the owning thread is draining this queue. */
+  boolean dispatching;
+  /** Event the owning thread is handing to a handler, or null. */
+  Object delivering;
+  /** Set when a handler cancels {@link #delivering}, and cleared once its delivery stops. */
+  boolean canceled;
+
+  boolean isEmpty() {
+    return size == 0;
+  }
+
+  int size() {
+    return size;
+  }
+
+  int capacity() {
+    return events.length;
+  }
+
+  /**
+   * Appends {@code event} for delivery to {@code handler} as a post of its own. Returns false if the event instead
+   * replaced a queued event which it conflates with.
+   */
+  boolean offer(Object event, EventHandler handler) {
+    return offer(event, handler, true);
+  }
+
+  /**
+   * Appends {@code event} for delivery to {@code handler}, as the first entry of a post if {@code startsPost}. Returns
+   * false if the event instead replaced a queued event which it conflates with.
+   */
+  boolean offer(Object event, EventHandler handler, boolean startsPost) {
+    if (event instanceof Conflatable && conflate((Conflatable) event, handler, true)) {
+      return false;
+    }
+    if (size == events.length) {
+      grow();
+    }
+    int tail = (head + size) & (events.length - 1);
+    events[tail] = event;
+    handlers[tail] = handler;
+    this.startsPost[tail] = startsPost;
+    size++;
+    return true;
+  }
+
+  /** Replaces the queued event which {@code event} conflates with for {@code handler}, if there is one. */
+  boolean replaceQueued(Object event, EventHandler handler) {
+    return event instanceof Conflatable && conflate((Conflatable) event, handler, false);
+  }
+
+  /** Returns the position which the next appended entry will have. */
+  long tailPosition() {
+    return removed + size;
+  }
+
+  /**
+   * Marks the entries appended at or after {@code position} as one post, which the first of them starts. Entries
+   * before {@code position} are left unchanged.
+   */
+  void joinPost(long position) {
+    for (long p = position + 1; p < removed + size; p++) {
+      startsPost[(head + (int) (p - removed)) & (events.length - 1)] = false;
+    }
+  }
+
+  /** Returns the event of the first entry. Must not be called when empty. */
+  Object headEvent() {
+    return events[head];
+  }
+
+  /** Returns the handler of the first entry. Must not be called when empty. */
+  EventHandler headHandler() {
+    return handlers[head];
+  }
+
+  /** Returns true if the first entry is the first of its post. Must not be called when empty. */
+  boolean headStartsPost() {
+    return startsPost[head];
+  }
+
+  /** Removes the first entry. Must not be called when empty. */
+  void removeHead() {
+    Object event = events[head];
+    if (conflated != null && event instanceof Conflatable) {
+      Object key = ((Conflatable) event).conflationKey();
+      if (key != null) {
+        conflated.remove(new ConflationKey(handlers[head], key));
+      }
+    }
+    removed++;
+    events[head] = null;
+    handlers[head] = null;
+    head = (head + 1) & (events.length - 1);
+    size--;
+    if (size == 0 && events.length > MAX_RETAINED_CAPACITY) {
+      shrink();
+    }
+  }
+
+  /**
+   * Replaces the queued event for {@code handler} with the same conflation key as {@code event}, returning true.
+   * Otherwise returns false, first recording where {@code event} is about to be appended if {@code appending}.
+   */
+  private boolean conflate(Conflatable event, EventHandler handler, boolean appending) {
+    Object key = event.conflationKey();
+    if (key == null || (conflated == null && !appending)) {
+      return false;
+    }
+    if (conflated == null) {
+      conflated = new HashMap<ConflationKey, Long>();
+    }
+    ConflationKey conflationKey = new ConflationKey(handler, key);
+    Long position = conflated.get(conflationKey);
+    if (position == null) {
+      if (appending) {
+        conflated.put(conflationKey, removed + size);
+      }
+      return false;
+    }
+    events[(head + (int) (position - removed)) & (events.length - 1)] = event;
+    return true;
+  }
+
+  /** Doubles the capacity, moving entries so that the first is at index 0. */
+  private void grow() {
+    int capacity = events.length;
+    Object[] newEvents = new Object[capacity * 2];
+    EventHandler[] newHandlers = new EventHandler[capacity * 2];
+    boolean[] newStartsPost = new boolean[capacity * 2];
+    int firstPart = capacity - head;
+    System.arraycopy(events, head, newEvents, 0, firstPart);
+    System.arraycopy(events, 0, newEvents, firstPart, head);
+    System.arraycopy(handlers, head, newHandlers, 0, firstPart);
+    System.arraycopy(handlers, 0, newHandlers, firstPart, head);
+    System.arraycopy(startsPost, head, newStartsPost, 0, firstPart);
+    System.arraycopy(startsPost, 0, newStartsPost, firstPart, head);
+    events = newEvents;
+    handlers = newHandlers;
+    startsPost = newStartsPost;
+    head = 0;
+  }
+
+  /** Replaces the buffers of an empty queue with ones of the initial capacity, and drops its conflation index. */
+  private void shrink() {
+    events = new Object[INITIAL_CAPACITY];
+    handlers = new EventHandler[INITIAL_CAPACITY];
+    startsPost = new boolean[INITIAL_CAPACITY];
+    head = 0;
+    conflated = null;
+  }
+
+  /** A handler and the conflation key of an event queued for it. */
+  private static final class ConflationKey {
+    private final EventHandler handler;
+    private final Object key;
+
+    ConflationKey(EventHandler handler, Object key) {
+      this.handler = handler;
+      this.key = key;
+    }
+
+    @Override public boolean equals(Object o) {
+      if (!(o instanceof ConflationKey)) {
+        return false;
+      }
+      ConflationKey other = (ConflationKey) o;
+      return handler == other.handler && key.equals(other.key);
+    }
+
+    @Override public int hashCode() {
+      final int prime = 31;
+      return System.identityHashCode(handler) * prime + key.hashCode();
+    }
+  }
+}
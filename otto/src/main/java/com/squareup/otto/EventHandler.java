@@ -19,6 +19,7 @@ package com.squareup.otto;
 
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.Comparator;
 
 /**
  * Wraps a single-argument 'handler' method on a specific object.
@@ -33,16 +34,45 @@ import java.lang.reflect.Method;
  */
 class EventHandler {
 
-  /** Object sporting the handler method. */
-  private final Object target;
+  /** Orders handlers by descending {@link #priority}. Sorting with it is stable, keeping registration order. */
+  static final Comparator<EventHandler> PRIORITY_ORDER = new Comparator<EventHandler>() {
+    @Override public int compare(EventHandler a, EventHandler b) {
+      return a.priority > b.priority ? -1 : (a.priority == b.priority ? 0 : 1);
+    }
+  };
+
+  /** Object sporting the handler method, or the {@link WeakTarget} holding it if it was registered weakly. */
+  final Object target;
   /** Handler method. */
-  private final Method method;
+  private final ListenerMethod method;
+  /** Calls {@link #method} on {@link #target}. */
+  private final MethodInvoker invoker;
+  /** Thread on which {@link Bus} calls this handler. */
+  final ThreadMode threadMode;
+  /** Handlers with higher priority receive each event first. */
+  final int priority;
   /** Object hash code. */
   private final int hashCode;
-  /** Should this handler receive events? */
-  private boolean valid = true;
+  /** Should this handler receive events? Volatile since asynchronous buses deliver on other threads. */
+  private volatile boolean valid = true;
 
   EventHandler(Object target, Method method) {
+    this(target, method, method != null ? new ReflectiveInvoker(method) : null);
+  }
+
+  EventHandler(Object target, Method method, MethodInvoker invoker) {
+    this(target, method, invoker, ThreadMode.POSTING);
+  }
+
+  EventHandler(Object target, Method method, MethodInvoker invoker, ThreadMode threadMode) {
+    this(target, method, invoker, threadMode, 0);
+  }
+
+  EventHandler(Object target, Method method, MethodInvoker invoker, ThreadMode threadMode, int priority) {
+    this(target, method != null ? ListenerMethod.subscriber(method, invoker, threadMode, priority) : null);
+  }
+
+  EventHandler(Object target, ListenerMethod method) {
     if (target == null) {
       throw new NullPointerException("EventHandler target cannot be null.");
     }
@@ -52,7 +82,9 @@ class EventHandler {
 
     this.target = target;
     this.method = method;
-    method.setAccessible(true);
+    this.invoker = method.invoker;
+    this.threadMode = method.threadMode;
+    this.priority = method.priority;
 
     // Compute hash code eagerly since we know it will be used frequently and we cannot estimate the runtime of the
     // target's hashCode call.
@@ -60,6 +92,16 @@ class EventHandler {
     hashCode = (prime + method.hashCode()) * prime + target.hashCode();
   }
 
+  /** Returns a handler for the same method which holds {@code weakTarget} in place of the target. */
+  EventHandler withWeakTarget(WeakTarget weakTarget) {
+    return new EventHandler(weakTarget, method);
+  }
+
+  /** Returns the object sporting the handler method, or null if it was registered weakly and has been collected. */
+  Object getTarget() {
+    return target instanceof WeakTarget ? ((WeakTarget) target).get() : target;
+  }
+
   public boolean isValid() {
     return valid;
   }
@@ -74,7 +116,8 @@ class EventHandler {
   }
 
   /**
-   * Invokes the wrapped handler method to handle {@code event}.
+   * Invokes the wrapped handler method to handle {@code event}. Does nothing if the target was registered weakly and
+   * has been collected.
    *
    * @param event  event to handle
    * @throws java.lang.IllegalStateException  if previously invalidated.
@@ -85,10 +128,12 @@ class EventHandler {
     if (!valid) {
       throw new IllegalStateException(toString() + " has been invalidated and can no longer handle events.");
     }
+    Object receiver = getTarget();
+    if (receiver == null) {
+      return;
+    }
     try {
-      method.invoke(target, event);
-    } catch (IllegalAccessException e) {
-      throw new AssertionError(e);
+      invoker.invokeHandler(receiver, event);
     } catch (InvocationTargetException e) {
       if (e.getCause() instanceof Error) {
         throw (Error) e.getCause();
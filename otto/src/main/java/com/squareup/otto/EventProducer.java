@@ -18,6 +18,8 @@ package com.squareup.otto;
 
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
 
 /**
  * Wraps a 'producer' method on a specific object.
@@ -29,16 +31,34 @@ import java.lang.reflect.Method;
  */
 class EventProducer {
 
-  /** Object sporting the producer method. */
+  /** Object sporting the producer method, or the {@link WeakTarget} holding it if it was registered weakly. */
   final Object target;
   /** Producer method. */
-  private final Method method;
+  private final ListenerMethod method;
+  /** Calls {@link #method} on {@link #target}. */
+  private final MethodInvoker invoker;
+  /** Whether each handler gets an event of its own, rather than sharing one per registration. */
+  final boolean perHandler;
+  /** Whether the method returns a {@link Future} or {@link Callable} of its event rather than the event itself. */
+  final boolean deferred;
   /** Object hash code. */
   private final int hashCode;
-  /** Should this producer produce events? */
-  private boolean valid = true;
+  /** Should this producer produce events? Volatile since deferred events are resolved on other threads. */
+  private volatile boolean valid = true;
 
   EventProducer(Object target, Method method) {
+    this(target, method, method != null ? new ReflectiveInvoker(method) : null);
+  }
+
+  EventProducer(Object target, Method method, MethodInvoker invoker) {
+    this(target, method, invoker, false);
+  }
+
+  EventProducer(Object target, Method method, MethodInvoker invoker, boolean perHandler) {
+    this(target, method != null ? ListenerMethod.producer(method, invoker, perHandler) : null);
+  }
+
+  EventProducer(Object target, ListenerMethod method) {
     if (target == null) {
       throw new NullPointerException("EventProducer target cannot be null.");
     }
@@ -48,7 +68,9 @@ class EventProducer {
 
     this.target = target;
     this.method = method;
-    method.setAccessible(true);
+    this.invoker = method.invoker;
+    this.perHandler = method.perHandler;
+    this.deferred = method.deferred;
 
     // Compute hash code eagerly since we know it will be used frequently and we cannot estimate the runtime of the
     // target's hashCode call.
@@ -56,6 +78,21 @@ class EventProducer {
     hashCode = (prime + method.hashCode()) * prime + target.hashCode();
   }
 
+  /** Returns true if a producer method returning {@code returnType} defers computing its event. */
+  static boolean isDeferred(Class<?> returnType) {
+    return Future.class.isAssignableFrom(returnType) || Callable.class.isAssignableFrom(returnType);
+  }
+
+  /** Returns a producer for the same method which holds {@code weakTarget} in place of the target. */
+  EventProducer withWeakTarget(WeakTarget weakTarget) {
+    return new EventProducer(weakTarget, method);
+  }
+
+  /** Returns the object sporting the producer method, or null if it was registered weakly and has been collected. */
+  Object getTarget() {
+    return target instanceof WeakTarget ? ((WeakTarget) target).get() : target;
+  }
+
   public boolean isValid() {
     return valid;
   }
@@ -70,7 +107,7 @@ class EventProducer {
   }
 
   /**
-   * Invokes the wrapped producer method.
+   * Invokes the wrapped producer method. Returns null if the target was registered weakly and has been collected.
    *
    * @throws java.lang.IllegalStateException  if previously invalidated.
    * @throws java.lang.reflect.InvocationTargetException  if the wrapped method throws any {@link Throwable} that is not
@@ -80,10 +117,12 @@ class EventProducer {
     if (!valid) {
       throw new IllegalStateException(toString() + " has been invalidated and can no longer produce events.");
     }
+    Object receiver = getTarget();
+    if (receiver == null) {
+      return null;
+    }
     try {
-      return method.invoke(target);
-    } catch (IllegalAccessException e) {
-      throw new AssertionError(e);
+      return invoker.invokeProducer(receiver);
     } catch (InvocationTargetException e) {
       if (e.getCause() instanceof Error) {
         throw (Error) e.getCause();
@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2015 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.squareup.otto;
+
+import java.lang.reflect.InvocationTargetException;
+
+/** Invokes a method through the {@link ListenerDispatcher} generated for its class. */
+final class GeneratedInvoker implements MethodInvoker {
+
+  private final ListenerDispatcher<Object> dispatcher;
+  private final int index;
+
+  GeneratedInvoker(ListenerDispatcher<Object> dispatcher, int index) {
+    this.dispatcher = dispatcher;
+    this.index = index;
+  }
+
+  @Override public void invokeHandler(Object target, Object event) throws InvocationTargetException {
+    try {
+      dispatcher.handleEvent(target, index, event);
+    } catch (Throwable t) {
+      throw new InvocationTargetException(t);
+    }
+  }
+
+  @Override public Object invokeProducer(Object target) throws InvocationTargetException {
+    try {
+      return dispatcher.produceEvent(target, index);
+    } catch (Throwable t) {
+      throw new InvocationTargetException(t);
+    }
+  }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2015 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.squareup.otto;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The handlers registered for one event type, by descending priority and then in registration order.
+ *
+ * <p>Membership is hashed, and iteration walks an immutable array which each change replaces with a single volatile
+ * write. Adding or removing a batch of handlers therefore costs time linear in the size of the set rather than
+ * quadratic, and reading the set never locks or allocates beyond the iterator. Changes are serialized on the set.
+ */
+final class HandlerSet extends AbstractSet<EventHandler> {
+  private static final EventHandler[] EMPTY = new EventHandler[0];
+
+  /** Each member, mapped to itself so that the registered instance can be found from an equal one. */
+  private final ConcurrentMap<EventHandler, EventHandler> members =
+      new ConcurrentHashMap<EventHandler, EventHandler>();
+
+  /** Members by descending priority, then in registration order. Never modified once published. */
+  private volatile EventHandler[] snapshot = EMPTY;
+
+  /** Returns the members by descending priority, then in registration order. The array must not be modified. */
+  EventHandler[] snapshot() {
+    return snapshot;
+  }
+
+  /** Returns the registered handler equal to {@code handler}, or null if there is none. */
+  EventHandler get(EventHandler handler) {
+    return members.get(handler);
+  }
+
+  @Override public boolean add(EventHandler handler) {
+    return addAll(Arrays.asList(handler));
+  }
+
+  @Override public synchronized boolean addAll(Collection<? extends EventHandler> handlers) {
+    EventHandler[] current = snapshot;
+    EventHandler[] updated = Arrays.copyOf(current, current.length + handlers.size());
+    int size = current.length;
+    boolean sorted = true;
+    for (EventHandler handler : handlers) {
+      if (members.putIfAbsent(handler, handler) == null) {
+        sorted &= size == 0 || updated[size - 1].priority >= handler.priority;
+        updated[size++] = handler;
+      }
+    }
+    if (size == current.length) {
+      return false;
+    }
+    if (!sorted) {
+      Arrays.sort(updated, 0, size, EventHandler.PRIORITY_ORDER);
+    }
+    snapshot = size == updated.length ? updated : Arrays.copyOf(updated, size);
+    return true;
+  }
+
+  @Override public boolean remove(Object handler) {
+    return removeAll(Arrays.asList(handler));
+  }
+
+  @Override public synchronized boolean removeAll(Collection<?> handlers) {
+    boolean changed = false;
+    for (Object handler : handlers) {
+      if (members.remove(handler) != null) {
+        changed = true;
+      }
+    }
+    if (!changed) {
+      return false;
+    }
+    EventHandler[] current = snapshot;
+    EventHandler[] updated = new EventHandler[members.size()];
+    int size = 0;
+    for (EventHandler handler : current) {
+      if (members.get(handler) == handler) {
+        updated[size++] = handler;
+      }
+    }
+    snapshot = size == updated.length ? updated : Arrays.copyOf(updated, size);
+    return true;
+  }
+
+  @Override public boolean contains(Object handler) {
+    return members.containsKey(handler);
+  }
+
+  @Override public int size() {
+    return snapshot.length;
+  }
+
+  @Override public boolean isEmpty() {
+    return snapshot.length == 0;
+  }
+
+  @Override public Object[] toArray() {
+    EventHandler[] current = snapshot;
+    return Arrays.copyOf(current, current.length, Object[].class);
+  }
+
+  @Override public synchronized void clear() {
+    members.clear();
+    snapshot = EMPTY;
+  }
+
+  /** Iterates over the members at the time of the call. Does not support removal. */
+  @Override public Iterator<EventHandler> iterator() {
+    final EventHandler[] current = snapshot;
+    return new Iterator<EventHandler>() {
+      private int index;
+
+      @Override public boolean hasNext() {
+        return index < current.length;
+      }
+
+      @Override public EventHandler next() {
+        if (index >= current.length) {
+          throw new NoSuchElementException();
+        }
+        return current[index++];
+      }
+
+      @Override public void remove() {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+}
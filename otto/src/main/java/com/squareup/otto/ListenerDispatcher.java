@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2015 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.squareup.otto;
+
+/**
+ * Invokes the {@link Subscribe} and {@link Produce} methods declared on a listener class without reflection.
+ *
+ * <p>Implementations are generated by the {@code otto-compiler} annotation processor into a class named after the
+ * listener with a {@value #SUFFIX} suffix. When such a class is present the {@link Bus} uses it to deliver events
+ * to, and produce events from, instances of the listener, falling back to reflection for any method it does not
+ * recognize.
+ *
+ * <p>This interface is not intended to be implemented by hand.
+ *
+ * @param <T> the listener class whose methods are dispatched.
+ */
+public interface ListenerDispatcher<T> {
+
+  /** Suffix appended to the binary name of a listener class to find its generated dispatcher. */
+  String SUFFIX = "$$ListenerDispatcher";
+
+  /**
+   * Returns the index of the {@link Subscribe} method named {@code methodName} which accepts {@code eventType}, or
+   * -1 if this dispatcher does not know of such a method.
+   */
+  int subscriberIndex(String methodName, Class<?> eventType);
+
+  /**
+   * Returns the index of the {@link Produce} method named {@code methodName}, or -1 if this dispatcher does not know
+   * of such a method.
+   */
+  int producerIndex(String methodName);
+
+  /**
+   * Calls the subscriber method at {@code subscriber} on {@code listener} with {@code event}.
+   *
+   * @throws Throwable anything thrown by the subscriber method.
+   */
+  void handleEvent(T listener, int subscriber, Object event) throws Throwable;
+
+  /**
+   * Calls the producer method at {@code producer} on {@code listener} and returns its result.
+   *
+   * @throws Throwable anything thrown by the producer method.
+   */
+  Object produceEvent(T listener, int producer) throws Throwable;
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2015 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.otto;
+
+/**
+ * Describes every {@link Subscribe} and {@link Produce} method declared on a listener class, so that the {@link Bus}
+ * can register instances of it without scanning the class or reading annotations.
+ *
+ * <p>The {@code otto-compiler} annotation processor checks the methods when they are compiled, and implements this
+ * interface on the generated {@link ListenerDispatcher} if it can call every one of them. Listeners whose dispatcher
+ * does not implement it are scanned through reflection as before.
+ *
+ * <p>This interface is not intended to be implemented by hand.
+ */
+public interface ListenerIndex {
+
+  /** Returns the subscriber methods, each at its index in the {@link ListenerDispatcher}. */
+  Subscriber[] subscribers();
+
+  /** Returns the producer methods, each at its index in the {@link ListenerDispatcher}. */
+  Producer[] producers();
+
+  /** A {@link Subscribe} method and the values of its annotation. */
+  final class Subscriber {
+    final String methodName;
+    final Class<?> eventType;
+    final ThreadMode threadMode;
+    final int priority;
+
+    public Subscriber(String methodName, Class<?> eventType, ThreadMode threadMode, int priority) {
+      this.methodName = methodName;
+      this.eventType = eventType;
+      this.threadMode = threadMode;
+      this.priority = priority;
+    }
+  }
+
+  /** A {@link Produce} method, the type of event it produces, and the values of its annotation. */
+  final class Producer {
+    final String methodName;
+    final Class<?> eventType;
+    final boolean perHandler;
+    /** Whether the method returns a {@link java.util.concurrent.Future} or {@link java.util.concurrent.Callable}. */
+    final boolean deferred;
+
+    public Producer(String methodName, Class<?> eventType, boolean perHandler, boolean deferred) {
+      this.methodName = methodName;
+      this.eventType = eventType;
+      this.perHandler = perHandler;
+      this.deferred = deferred;
+    }
+  }
+}
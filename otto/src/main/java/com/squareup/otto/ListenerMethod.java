@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2015 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.otto;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+
+/**
+ * One {@link Subscribe} or {@link Produce} method of a listener class, together with everything a {@link Bus} needs to
+ * call it. Found once per listener class and shared by every handler or producer created for its instances.
+ *
+ * <p>Methods are identified by class, name and parameter types rather than by {@link Method}, so that those read from
+ * a generated {@link ListenerIndex} never need to be looked up through reflection.
+ */
+final class ListenerMethod {
+  private static final Class<?>[] NO_PARAMETERS = new Class<?>[0];
+
+  /** Class declaring the method. */
+  final Class<?> listenerClass;
+  final String name;
+  /** The event type for subscribers, and empty for producers. */
+  private final Class<?>[] parameterTypes;
+  /** Calls this method. */
+  final MethodInvoker invoker;
+  /** Thread on which a subscriber is called. Always {@link ThreadMode#POSTING} for producers. */
+  final ThreadMode threadMode;
+  /** Priority of a subscriber. Always 0 for producers. */
+  final int priority;
+  /** Whether a producer is called separately for each handler. Always false for subscribers. */
+  final boolean perHandler;
+  /** Whether a producer returns a {@link java.util.concurrent.Future} or {@link java.util.concurrent.Callable}. */
+  final boolean deferred;
+  /** Object hash code. */
+  private final int hashCode;
+
+  /** Creates a subscriber. */
+  private ListenerMethod(Class<?> listenerClass, String name, Class<?>[] parameterTypes, MethodInvoker invoker,
+      ThreadMode threadMode, int priority) {
+    this.listenerClass = listenerClass;
+    this.name = name;
+    this.parameterTypes = parameterTypes;
+    this.invoker = invoker;
+    this.threadMode = threadMode;
+    this.priority = priority;
+    this.perHandler = false;
+    this.deferred = false;
+    this.hashCode = hashCode(listenerClass, name, parameterTypes);
+  }
+
+  /** Creates a producer. */
+  private ListenerMethod(Class<?> listenerClass, String name, Class<?>[] parameterTypes, MethodInvoker invoker,
+      boolean perHandler, boolean deferred) {
+    this.listenerClass = listenerClass;
+    this.name = name;
+    this.parameterTypes = parameterTypes;
+    this.invoker = invoker;
+    this.threadMode = ThreadMode.POSTING;
+    this.priority = 0;
+    this.perHandler = perHandler;
+    this.deferred = deferred;
+    this.hashCode = hashCode(listenerClass, name, parameterTypes);
+  }
+
+  private static int hashCode(Class<?> listenerClass, String name, Class<?>[] parameterTypes) {
+    final int prime = 31;
+    return (prime * listenerClass.hashCode() + name.hashCode()) * prime + Arrays.hashCode(parameterTypes);
+  }
+
+  static ListenerMethod subscriber(Method method, MethodInvoker invoker, ThreadMode threadMode, int priority) {
+    return new ListenerMethod(method.getDeclaringClass(), method.getName(), method.getParameterTypes(), invoker,
+        threadMode, priority);
+  }
+
+  /** Returns the subscriber {@code name} of {@code listenerClass} taking {@code eventType}, as named in its index. */
+  static ListenerMethod subscriber(Class<?> listenerClass, String name, Class<?> eventType, MethodInvoker invoker,
+      ThreadMode threadMode, int priority) {
+    return new ListenerMethod(listenerClass, name, new Class<?>[] {eventType}, invoker, threadMode, priority);
+  }
+
+  static ListenerMethod producer(Method method, MethodInvoker invoker, boolean perHandler) {
+    return new ListenerMethod(method.getDeclaringClass(), method.getName(), method.getParameterTypes(), invoker,
+        perHandler, EventProducer.isDeferred(method.getReturnType()));
+  }
+
+  /** Returns the producer {@code name} of {@code listenerClass}, as named in its index. */
+  static ListenerMethod producer(Class<?> listenerClass, String name, MethodInvoker invoker, boolean perHandler,
+      boolean deferred) {
+    return new ListenerMethod(listenerClass, name, NO_PARAMETERS, invoker, perHandler, deferred);
+  }
+
+  /** Returns a handler which calls this subscriber on {@code target}. */
+  EventHandler newHandler(Object target) {
+    return new EventHandler(target, this);
+  }
+
+  /** Returns a producer which calls this producer method on {@code target}. */
+  EventProducer newProducer(Object target) {
+    return new EventProducer(target, this);
+  }
+
+  @Override public String toString() {
+    StringBuilder builder = new StringBuilder(listenerClass.getName()).append('.').append(name).append('(');
+    for (int i = 0; i < parameterTypes.length; i++) {
+      if (i > 0) {
+        builder.append(',');
+      }
+      builder.append(parameterTypes[i].getName());
+    }
+    return builder.append(')').toString();
+  }
+
+  @Override public int hashCode() {
+    return hashCode;
+  }
+
+  @Override public boolean equals(Object obj) {
+    if (this == obj) {
+      return true;
+    }
+    if (!(obj instanceof ListenerMethod)) {
+      return false;
+    }
+    ListenerMethod other = (ListenerMethod) obj;
+    return listenerClass == other.listenerClass && name.equals(other.name)
+        && Arrays.equals(parameterTypes, other.parameterTypes);
+  }
+}
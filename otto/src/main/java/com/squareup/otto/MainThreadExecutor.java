@@ -0,0 +1,31 @@
+/*
+ * Copyright (C) 2015 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.otto;
+
+import java.util.concurrent.Executor;
+
+/**
+ * An {@link Executor} for {@link ThreadMode#MAIN} handlers which can also tell whether the calling thread is its main
+ * thread. Given one, a {@link Bus} delivers an event posted on the main thread directly, rather than through the
+ * executor, to each subscriber which has no earlier event still waiting on the executor.
+ *
+ * <p>On Android, for example, {@code isMainThread()} would return {@code Looper.myLooper() == Looper.getMainLooper()}
+ * and {@code execute} would post to a {@code Handler} for the main looper.
+ */
+public interface MainThreadExecutor extends Executor {
+  /** Returns true if the calling thread is the thread on which this executor runs its tasks. */
+  boolean isMainThread();
+}
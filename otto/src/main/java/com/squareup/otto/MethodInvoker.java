@@ -0,0 +1,33 @@
+/*
+ * Copyright (C) 2015 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.squareup.otto;
+
+import java.lang.reflect.InvocationTargetException;
+
+/**
+ * Invokes a single {@link Subscribe} or {@link Produce} method on a target object.
+ *
+ * <p>Implementations must wrap anything thrown by the invoked method in an {@link InvocationTargetException}.
+ */
+interface MethodInvoker {
+
+  /** Calls the wrapped handler method on {@code target} with {@code event}. */
+  void invokeHandler(Object target, Object event) throws InvocationTargetException;
+
+  /** Calls the wrapped producer method on {@code target} and returns its result. */
+  Object invokeProducer(Object target) throws InvocationTargetException;
+}
@@ -26,10 +26,26 @@ import java.lang.annotation.Target;
  * <p>
  * Otto infers the instance type from the annotated method's return type. Producer methods may return null when there is
  * no appropriate value to share. The calling {@link Bus} ignores such returns and posts nothing.
+ * <p>
+ * A producer whose event is expensive to compute may instead return a {@link java.util.concurrent.Future Future} or
+ * {@link java.util.concurrent.Callable Callable} of its event type, such as {@code Future<LocationEvent>}. Registering
+ * then does not wait for the event: it is computed on the bus's background executor and delivered once ready, from the
+ * main thread executor. A future which is already done is delivered at once, like any other event. A failure to
+ * compute the event is rethrown from the main thread executor.
+ * <p>
+ * Such producers can only be registered on a bus with a main thread executor, given to
+ * {@link Bus#Bus(ThreadEnforcer, String, java.util.concurrent.Executor, java.util.concurrent.Executor) its
+ * constructor}. Buses created without one, including {@code new Bus()}, reject them with
+ * {@link IllegalArgumentException} when they are registered.
+ * <p>
+ * When a registration gives a producer new handlers, the producer is called once and its event is delivered to all of
+ * them. Set {@link #perHandler()} for producers whose events must not be shared between handlers.
  *
  * @author Jake Wharton
  */
 @Retention(RetentionPolicy.RUNTIME)
 @Target(ElementType.METHOD)
 public @interface Produce {
+  /** Whether to call the producer separately for each handler, rather than once per registration. */
+  boolean perHandler() default false;
 }
@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2015 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.squareup.otto;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/** Invokes a method through {@link Method#invoke}. Used when no faster invoker is available. */
+final class ReflectiveInvoker implements MethodInvoker {
+
+  private final Method method;
+
+  ReflectiveInvoker(Method method) {
+    this.method = method;
+    method.setAccessible(true);
+  }
+
+  @Override public void invokeHandler(Object target, Object event) throws InvocationTargetException {
+    try {
+      method.invoke(target, event);
+    } catch (IllegalAccessException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  @Override public Object invokeProducer(Object target) throws InvocationTargetException {
+    try {
+      return method.invoke(target);
+    } catch (IllegalAccessException e) {
+      throw new AssertionError(e);
+    }
+  }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2015 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.otto;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Handle to one object's registration on a {@link Bus}, returned by {@link Bus#register(Object)}.
+ *
+ * <p>The handle holds the exact handlers and producers that were registered, so {@link #unregister()} removes them
+ * directly instead of searching the object for annotated methods again.
+ */
+public final class Registration {
+  final Bus bus;
+  /** The registered object, or the {@link WeakTarget} holding it if it was registered weakly. */
+  final Object key;
+  final Map<Class<?>, EventProducer> producers;
+  final Map<Class<?>, Set<EventHandler>> handlers;
+  private volatile boolean registered = true;
+
+  Registration(Bus bus, Object key, Map<Class<?>, EventProducer> producers,
+      Map<Class<?>, Set<EventHandler>> handlers) {
+    this.bus = bus;
+    this.key = key;
+    this.producers = producers;
+    this.handlers = handlers;
+  }
+
+  /** Returns the registered object, or null if it was registered weakly and has been garbage collected. */
+  public Object getTarget() {
+    return key instanceof WeakTarget ? ((WeakTarget) key).get() : key;
+  }
+
+  /**
+   * Returns true until this registration is undone by {@link #unregister()} or {@link Bus#unregister(Object)}. Always
+   * false for an object without handler or producer methods, since the bus keeps nothing for it.
+   */
+  public boolean isRegistered() {
+    return registered;
+  }
+
+  /**
+   * Unregisters the producer and handler methods which were registered with this handle. Does nothing if they have
+   * already been unregistered.
+   */
+  public void unregister() {
+    bus.unregisterHandle(this);
+  }
+
+  void markUnregistered() {
+    registered = false;
+  }
+
+  @Override public String toString() {
+    return "[Registration " + getTarget() + " on " + bus + "]";
+  }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2015 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.otto;
+
+/** The last events posted to one type, kept in a fixed-size ring for replay to handlers registered later. */
+final class ReplayBuffer {
+  private Object[] events;
+  /** Index at which the next event is stored. */
+  private int next;
+  /** Number of events held. */
+  private int size;
+
+  ReplayBuffer(int capacity) {
+    events = new Object[capacity];
+  }
+
+  synchronized int capacity() {
+    return events.length;
+  }
+
+  /** Holds at most {@code capacity} events from now on, keeping the most recent events which still fit. */
+  synchronized void resize(int capacity) {
+    Object[] kept = toArray();
+    events = new Object[capacity];
+    next = 0;
+    size = 0;
+    for (int i = Math.max(0, kept.length - capacity); i < kept.length; i++) {
+      add(kept[i]);
+    }
+  }
+
+  /** Adds {@code event}, displacing the oldest event if full. */
+  synchronized void add(Object event) {
+    events[next] = event;
+    next = (next + 1) % events.length;
+    if (size < events.length) {
+      size++;
+    }
+  }
+
+  /** Returns the events held, oldest first. */
+  synchronized Object[] toArray() {
+    Object[] copy = new Object[size];
+    int first = (next - size + events.length) % events.length;
+    for (int i = 0; i < size; i++) {
+      copy[i] = events[(first + i) % events.length];
+    }
+    return copy;
+  }
+}
@@ -0,0 +1,309 @@
+/*
+ * Copyright (C) 2015 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.squareup.otto;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link Bus} for high rates of events from a single posting thread, which hands deliveries to a fixed set of
+ * consumer threads through a preallocated ring buffer.
+ *
+ * <p>Each delivery (an event and one of its handlers) occupies one slot of the ring, so posting allocates nothing.
+ * The poster publishes a slot by advancing a sequence number; each consumer follows that sequence and records its
+ * own progress, which stops the poster from overwriting slots a consumer has not yet read. When a consumer falls
+ * behind it catches up on every published slot in one batch, touching the shared sequences once per batch rather than
+ * once per event. How waiting threads pass the time is decided by a {@link WaitStrategy}.
+ *
+ * <p>Every subscriber is owned by one consumer, chosen by identity hash, so a subscriber sees events in the order
+ * they were posted and its handlers never run concurrently. Different subscribers may be owned by different
+ * consumers and run in parallel.
+ *
+ * <p>Only one thread may post: the first to do so. Handlers run on consumer threads and so must not post to this bus.
+ * Exceptions thrown by handlers go to the consumer thread's {@link Thread.UncaughtExceptionHandler} without stopping
+ * the consumer. Each slot is cleared once its event has been delivered, so the ring does not keep events or handlers
+ * reachable.
+ *
+ * <p>Consumers are daemon threads started by the constructor. Call {@link #shutdown()} to stop them once they have
+ * delivered everything already posted, including a post which was under way when the bus was shut down.
+ */
+public class RingBufferBus extends Bus {
+  /** Events of each slot. */
+  private final Object[] events;
+  /** Handlers of each slot. */
+  private final EventHandler[] handlers;
+  /** Index of the consumer which owns each slot's handler, so that other consumers need not read the slot. */
+  private final int[] owners;
+  private final int mask;
+  private final WaitStrategy waitStrategy;
+  private final Consumer[] consumers;
+
+  /** Sequence of the last published slot. */
+  private final AtomicLong cursor = new AtomicLong(-1);
+
+  /** The thread which posts events, once it has. */
+  private volatile Thread producer;
+  /** Sequence of the next slot to publish. Confined to {@link #producer}. */
+  private long nextSequence;
+  /** Lowest consumer sequence when last checked. Confined to {@link #producer}. */
+  private long gatingSequence = -1;
+
+  private volatile boolean shutdown;
+  /**
+   * True while the producer is publishing, from before it checks {@link #shutdown} until the slot is published.
+   * Consumers which see a shutdown wait for this to clear, so that a post racing with the shutdown is not lost.
+   */
+  private volatile boolean publishing;
+
+  /**
+   * Creates a new RingBufferBus named "default" which allows registration from any thread.
+   *
+   * @param bufferSize Number of slots in the ring. Must be a power of two.
+   * @param consumerCount Number of consumer threads.
+   * @param waitStrategy How the poster and consumers wait for each other.
+   */
+  public RingBufferBus(int bufferSize, int consumerCount, WaitStrategy waitStrategy) {
+    this(ThreadEnforcer.ANY, DEFAULT_IDENTIFIER, bufferSize, consumerCount, waitStrategy);
+  }
+
+  /**
+   * Creates a new RingBufferBus with the given {@code enforcer} for actions and the given {@code identifier}.
+   *
+   * @param enforcer Thread enforcer for register, unregister, and post actions.
+   * @param identifier A brief name for this bus, for debugging purposes.  Should be a valid Java identifier.
+   * @param bufferSize Number of slots in the ring. Must be a power of two.
+   * @param consumerCount Number of consumer threads.
+   * @param waitStrategy How the poster and consumers wait for each other.
+   */
+  public RingBufferBus(ThreadEnforcer enforcer, String identifier, int bufferSize, int consumerCount,
+      WaitStrategy waitStrategy) {
+    super(enforcer, identifier);
+    if (bufferSize <= 0 || (bufferSize & (bufferSize - 1)) != 0) {
+      throw new IllegalArgumentException("Buffer size must be a power of two: " + bufferSize);
+    }
+    if (consumerCount <= 0) {
+      throw new IllegalArgumentException("Consumer count must be positive: " + consumerCount);
+    }
+    if (waitStrategy == null) {
+      throw new NullPointerException("Wait strategy must not be null.");
+    }
+    this.events = new Object[bufferSize];
+    this.handlers = new EventHandler[bufferSize];
+    this.owners = new int[bufferSize];
+    this.mask = bufferSize - 1;
+    this.waitStrategy = waitStrategy;
+    this.consumers = new Consumer[consumerCount];
+    for (int i = 0; i < consumerCount; i++) {
+      consumers[i] = new Consumer(i, "Otto-RingBuffer-" + identifier + "-" + i);
+    }
+    for (Consumer consumer : consumers) {
+      consumer.thread.start();
+    }
+  }
+
+  /**
+   * Publishes {@code event} for {@code wrapper}'s consumer, first waiting for room in the ring if every slot is still
+   * unread. Handlers with a {@link ThreadMode} other than {@link ThreadMode#POSTING} are already on their own executor
+   * and are called directly.
+   *
+   * @throws IllegalStateException if called from a thread other than the one which posts, or after shutdown.
+   */
+  @Override protected void dispatch(Object event, EventHandler wrapper) {
+    if (wrapper.threadMode != ThreadMode.POSTING) {
+      super.dispatch(event, wrapper);
+      return;
+    }
+    checkProducer();
+    publishing = true;
+    try {
+      if (shutdown) {
+        throw new IllegalStateException("Event bus " + this + " has been shut down.");
+      }
+
+      long sequence = nextSequence;
+      long wrapPoint = sequence - events.length;
+      if (wrapPoint > gatingSequence) {
+        long minimum;
+        int attempts = 0;
+        while (wrapPoint > (minimum = minimumConsumerSequence())) {
+          waitStrategy.idle(attempts++);
+        }
+        gatingSequence = minimum;
+      }
+
+      int index = (int) sequence & mask;
+      events[index] = event;
+      handlers[index] = wrapper;
+      owners[index] = owner(wrapper);
+      nextSequence = sequence + 1;
+      cursor.lazySet(sequence);
+    } finally {
+      publishing = false;
+    }
+  }
+
+  /** Returns the index of the consumer which delivers to {@code handler}'s subscriber. */
+  private int owner(EventHandler handler) {
+    return (System.identityHashCode(handler.target) & Integer.MAX_VALUE) % consumers.length;
+  }
+
+  private void checkProducer() {
+    Thread current = Thread.currentThread();
+    Thread producer = this.producer;
+    if (producer == current) {
+      return;
+    }
+    synchronized (this) {
+      if (this.producer == null) {
+        this.producer = current;
+        return;
+      }
+    }
+    throw new IllegalStateException("Event bus " + this + " only accepts events from " + this.producer
+        + " but was called from " + current + ".");
+  }
+
+  private long minimumConsumerSequence() {
+    long minimum = Long.MAX_VALUE;
+    for (Consumer consumer : consumers) {
+      minimum = Math.min(minimum, consumer.sequence.get());
+    }
+    return minimum;
+  }
+
+  /**
+   * Blocks until every event published before this call has been delivered, or until the timeout elapses.
+   *
+   * @return true if the events were delivered, or false if the timeout elapsed first.
+   * @throws InterruptedException if interrupted while waiting.
+   */
+  public boolean awaitQuiescence(long timeout, TimeUnit unit) throws InterruptedException {
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    long published = cursor.get();
+    int attempts = 0;
+    while (minimumConsumerSequence() < published) {
+      if (Thread.interrupted()) {
+        throw new InterruptedException();
+      }
+      if (System.nanoTime() - deadline >= 0) {
+        return false;
+      }
+      WaitStrategy.PARK.idle(attempts++);
+    }
+    return true;
+  }
+
+  /**
+   * Stops accepting events. Consumers stop once they have delivered every event already posted; use
+   * {@link #awaitTermination(long, TimeUnit)} to wait for them.
+   */
+  public void shutdown() {
+    shutdown = true;
+  }
+
+  /** Returns true if {@link #shutdown()} has been called. */
+  public boolean isShutdown() {
+    return shutdown;
+  }
+
+  /**
+   * Blocks until every consumer thread has stopped after a shutdown, or until the timeout elapses.
+   *
+   * @return true if the consumers stopped, or false if the timeout elapsed first.
+   * @throws IllegalStateException if the bus has not been shut down.
+   * @throws InterruptedException if interrupted while waiting.
+   */
+  public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+    if (!shutdown) {
+      throw new IllegalStateException("Event bus " + this + " has not been shut down.");
+    }
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    for (Consumer consumer : consumers) {
+      long remaining = deadline - System.nanoTime();
+      if (remaining > 0) {
+        TimeUnit.NANOSECONDS.timedJoin(consumer.thread, remaining);
+      }
+      if (consumer.thread.isAlive()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Delivers the slots whose handlers belong to the subscribers this consumer owns. */
+  private final class Consumer implements Runnable {
+    private final int index;
+    /** Sequence of the last slot this consumer has finished with. */
+    final AtomicLong sequence = new AtomicLong(-1);
+    final Thread thread;
+
+    Consumer(int index, String name) {
+      this.index = index;
+      this.thread = new Thread(this, name);
+      thread.setDaemon(true);
+    }
+
+    @Override public void run() {
+      long next = sequence.get() + 1;
+      while (true) {
+        long available = cursor.get();
+        int attempts = 0;
+        while (available < next) {
+          if (shutdown) {
+            // A post which checked for shutdown just before it may still be publishing its slot.
+            while (publishing) {
+              waitStrategy.idle(attempts++);
+            }
+            available = cursor.get();
+            if (available < next) {
+              return;
+            }
+            break;
+          }
+          waitStrategy.idle(attempts++);
+          available = cursor.get();
+        }
+
+        for (long current = next; current <= available; current++) {
+          int slot = (int) current & mask;
+          if (owners[slot] != index) {
+            continue;
+          }
+          Object event = events[slot];
+          EventHandler handler = handlers[slot];
+          // Only the owner touches these, and the producer reuses the slot only after every consumer has passed it.
+          events[slot] = null;
+          handlers[slot] = null;
+          if (handler.isValid()) {
+            deliver(event, handler);
+          }
+        }
+        sequence.lazySet(available);
+        next = available + 1;
+      }
+    }
+
+    private void deliver(Object event, EventHandler handler) {
+      try {
+        RingBufferBus.super.dispatch(event, handler);
+      } catch (Throwable t) {
+        Thread current = Thread.currentThread();
+        current.getUncaughtExceptionHandler().uncaughtException(current, t);
+      }
+    }
+  }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2015 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.squareup.otto;
+
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+
+/** Runs tasks one at a time, in submission order, on a delegate executor. */
+final class SerialExecutor implements Executor {
+  private final Executor delegate;
+  /** Guarded by this. */
+  private final Queue<Runnable> tasks = new LinkedList<Runnable>();
+  /** Task currently submitted to {@link #delegate}, if any. Guarded by this. */
+  private Runnable active;
+
+  SerialExecutor(Executor delegate) {
+    this.delegate = delegate;
+  }
+
+  @Override public synchronized void execute(final Runnable task) {
+    tasks.offer(new Runnable() {
+      @Override public void run() {
+        try {
+          task.run();
+        } finally {
+          scheduleNext();
+        }
+      }
+    });
+    if (active == null) {
+      scheduleNext();
+    }
+  }
+
+  private synchronized void scheduleNext() {
+    active = tasks.poll();
+    if (active != null) {
+      delegate.execute(active);
+    }
+  }
+}
@@ -0,0 +1,246 @@
+/*
+ * Copyright (C) 2015 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.squareup.otto;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link Bus} which spreads delivery work across a fixed number of shards, each a single thread running its own
+ * dispatch loop.
+ *
+ * <p>Every subscriber is owned by one shard, chosen by identity hash. A subscriber therefore sees events of every
+ * type in the order they were posted, its handlers never run concurrently, and its state is only ever touched by its
+ * shard's thread. Subscribers on different shards run in parallel, so delivery throughput grows with the number of
+ * shards up to the number of cores.
+ *
+ * <p>Any thread may post. Each shard collects deliveries in one queue while its thread drains a batch from another,
+ * swapping the two when the batch is done, so posting contends only briefly with the owning shard and allocates
+ * nothing once the queues have grown. Exceptions thrown by handlers go to the shard thread's
+ * {@link Thread.UncaughtExceptionHandler} without stopping the shard.
+ *
+ * <p>Shard threads are daemon threads started by the constructor. Call {@link #shutdown()} to stop them once they have
+ * delivered everything already posted.
+ */
+public class ShardedBus extends Bus {
+  private final Shard[] shards;
+
+  private volatile boolean shutdown;
+
+  /**
+   * Creates a new ShardedBus named "default" which allows interaction from any thread.
+   *
+   * @param shardCount Number of shards, each with its own thread.
+   */
+  public ShardedBus(int shardCount) {
+    this(ThreadEnforcer.ANY, DEFAULT_IDENTIFIER, shardCount);
+  }
+
+  /**
+   * Creates a new ShardedBus with the given {@code enforcer} for actions and the given {@code identifier}.
+   *
+   * @param enforcer Thread enforcer for register, unregister, and post actions.
+   * @param identifier A brief name for this bus, for debugging purposes.  Should be a valid Java identifier.
+   * @param shardCount Number of shards, each with its own thread.
+   */
+  public ShardedBus(ThreadEnforcer enforcer, String identifier, int shardCount) {
+    super(enforcer, identifier);
+    if (shardCount <= 0) {
+      throw new IllegalArgumentException("Shard count must be positive: " + shardCount);
+    }
+    shards = new Shard[shardCount];
+    for (int i = 0; i < shardCount; i++) {
+      shards[i] = new Shard("Otto-Shard-" + identifier + "-" + i);
+    }
+    for (Shard shard : shards) {
+      shard.thread.start();
+    }
+  }
+
+  /**
+   * Hands {@code event} to the shard which owns {@code wrapper}'s subscriber. Handlers with a {@link ThreadMode} other
+   * than {@link ThreadMode#POSTING} are already on their own executor and are called directly.
+   *
+   * @throws IllegalStateException if the bus has been shut down.
+   */
+  @Override protected void dispatch(Object event, EventHandler wrapper) {
+    if (wrapper.threadMode != ThreadMode.POSTING) {
+      super.dispatch(event, wrapper);
+      return;
+    }
+    int owner = (System.identityHashCode(wrapper.target) & Integer.MAX_VALUE) % shards.length;
+    shards[owner].enqueue(event, wrapper);
+  }
+
+  /**
+   * Blocks until every shard is idle with nothing queued, including deliveries posted by handlers while waiting, or
+   * until the timeout elapses.
+   *
+   * @return true if the bus became quiescent, or false if the timeout elapsed first.
+   * @throws InterruptedException if interrupted while waiting.
+   */
+  public boolean awaitQuiescence(long timeout, TimeUnit unit) throws InterruptedException {
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    long previous = -1;
+    while (true) {
+      // Handlers on one shard may post to another which was already found idle, so only finish once a whole pass
+      // finds every shard idle without any having been handed work since the last pass.
+      long enqueued = 0;
+      for (Shard shard : shards) {
+        long shardEnqueued = shard.awaitIdle(deadline);
+        if (shardEnqueued == -1) {
+          return false;
+        }
+        enqueued += shardEnqueued;
+      }
+      if (enqueued == previous) {
+        return true;
+      }
+      previous = enqueued;
+    }
+  }
+
+  /**
+   * Stops accepting events. Shards stop once they have delivered every event already posted; use
+   * {@link #awaitTermination(long, TimeUnit)} to wait for them.
+   */
+  public void shutdown() {
+    shutdown = true;
+    for (Shard shard : shards) {
+      synchronized (shard) {
+        shard.notifyAll();
+      }
+    }
+  }
+
+  /** Returns true if {@link #shutdown()} has been called. */
+  public boolean isShutdown() {
+    return shutdown;
+  }
+
+  /**
+   * Blocks until every shard thread has stopped after a shutdown, or until the timeout elapses.
+   *
+   * @return true if the shards stopped, or false if the timeout elapsed first.
+   * @throws IllegalStateException if the bus has not been shut down.
+   * @throws InterruptedException if interrupted while waiting.
+   */
+  public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+    if (!shutdown) {
+      throw new IllegalStateException("Event bus " + this + " has not been shut down.");
+    }
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    for (Shard shard : shards) {
+      long remaining = deadline - System.nanoTime();
+      if (remaining > 0) {
+        TimeUnit.NANOSECONDS.timedJoin(shard.thread, remaining);
+      }
+      if (shard.thread.isAlive()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** One dispatch loop and the deliveries waiting for it. */
+  private final class Shard implements Runnable {
+    final Thread thread;
+    /** Deliveries handed to this shard. Guarded by this. */
+    private DispatchQueue incoming = new DispatchQueue();
+    /** Batch being delivered. Confined to {@link #thread}, except while swapping under this. */
+    private DispatchQueue draining = new DispatchQueue();
+    /** True while {@link #thread} is delivering a batch. Guarded by this. */
+    private boolean busy;
+    /** Number of deliveries ever handed to this shard. Guarded by this. */
+    private long enqueued;
+
+    Shard(String name) {
+      thread = new Thread(this, name);
+      thread.setDaemon(true);
+    }
+
+    /**
+     * Hands a delivery to this shard. Shutdown is checked under the same lock which {@link #run()} holds when it sees
+     * the queue empty and stops, so a delivery is either accepted before the shard stops or rejected.
+     */
+    synchronized void enqueue(Object event, EventHandler handler) {
+      if (shutdown) {
+        throw new IllegalStateException("Event bus " + ShardedBus.this + " has been shut down.");
+      }
+      boolean wasEmpty = incoming.isEmpty();
+      incoming.offer(event, handler);
+      enqueued++;
+      if (wasEmpty && !busy) {
+        notifyAll();
+      }
+    }
+
+    /** Waits until this shard is idle, returning its enqueued count then, or -1 if {@code deadline} passes first. */
+    synchronized long awaitIdle(long deadline) throws InterruptedException {
+      while (busy || !incoming.isEmpty()) {
+        long remaining = deadline - System.nanoTime();
+        if (remaining <= 0) {
+          return -1;
+        }
+        TimeUnit.NANOSECONDS.timedWait(this, remaining);
+      }
+      return enqueued;
+    }
+
+    @Override public void run() {
+      while (true) {
+        synchronized (this) {
+          busy = false;
+          if (incoming.isEmpty()) {
+            // Wake anyone waiting for this shard to become idle.
+            notifyAll();
+          }
+          while (incoming.isEmpty()) {
+            if (shutdown) {
+              return;
+            }
+            try {
+              wait();
+            } catch (InterruptedException e) {
+              // Only shutdown stops a shard.
+            }
+          }
+          DispatchQueue batch = incoming;
+          incoming = draining;
+          draining = batch;
+          busy = true;
+        }
+
+        while (!draining.isEmpty()) {
+          Object event = draining.headEvent();
+          EventHandler handler = draining.headHandler();
+          draining.removeHead();
+          if (handler.isValid()) {
+            deliver(event, handler);
+          }
+        }
+      }
+    }
+
+    private void deliver(Object event, EventHandler handler) {
+      try {
+        ShardedBus.super.dispatch(event, handler);
+      } catch (Throwable t) {
+        thread.getUncaughtExceptionHandler().uncaughtException(thread, t);
+      }
+    }
+  }
+}
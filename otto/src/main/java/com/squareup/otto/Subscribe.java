@@ -28,10 +28,20 @@ import java.lang.annotation.Target;
  * <p>If this annotation is applied to methods with zero parameters or more than one parameter, the object containing
  * the method will not be able to register for event delivery from the {@link Bus}. Otto fails fast by throwing
  * runtime exceptions in these cases.
+ * <p>{@link #threadMode()} selects the thread on which the method is called. By default it is called on the thread
+ * which posted the event.
+ * <p>{@link #priority()} orders the handlers of each event. Handlers with a higher priority are called first, and
+ * handlers with equal priorities in the order they were registered. A {@link ThreadMode#POSTING} handler can stop an
+ * event from reaching the handlers after it with {@link Bus#cancelEventDelivery(Object)}.
  *
  * @author Cliff Biffle
  */
 @Retention(RetentionPolicy.RUNTIME)
 @Target(ElementType.METHOD)
 public @interface Subscribe {
+  /** Thread on which the handler is called. */
+  ThreadMode threadMode() default ThreadMode.POSTING;
+
+  /** Order in which the handler is called, relative to other handlers of the same event. Higher is earlier. */
+  int priority() default 0;
 }
@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2015 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.squareup.otto;
+
+/**
+ * Thread on which a {@link Subscribe} method is called.
+ *
+ * <p>Handlers in any mode other than {@link #POSTING} are handed to an executor given to the {@link Bus}, so
+ * {@link Bus#post(Object)} returns without waiting for them.
+ */
+public enum ThreadMode {
+  /**
+   * Called on the thread which posted the event, before {@link Bus#post(Object)} returns. This is the default, and
+   * costs nothing over a plain method call.
+   */
+  POSTING,
+
+  /**
+   * Called on the bus's main thread executor, in the order events were posted. If that executor is a
+   * {@link MainThreadExecutor}, an event posted on the main thread is delivered directly like {@link #POSTING} to each
+   * subscriber with no earlier event still waiting on the executor. Registering such a handler on a bus without a main
+   * thread executor throws {@link IllegalArgumentException}.
+   */
+  MAIN,
+
+  /**
+   * Called on the bus's background executor, one event at a time for each subscriber in the order events were posted.
+   * Different subscribers' handlers run concurrently, so one slow subscriber does not hold up the others. Suited to
+   * slow work, such as I/O, which must not block the posting thread.
+   */
+  BACKGROUND,
+
+  /**
+   * Called on the bus's background executor with no ordering, so deliveries may run concurrently with each other.
+   */
+  ASYNC,
+
+  /**
+   * Called on a new virtual thread for each event, with no ordering. Suited to handlers which block, since blocked
+   * virtual threads do not hold on to platform threads. Falls back to daemon platform threads on JVMs without virtual
+   * threads.
+   *
+   * @see VirtualThreads
+   */
+  VIRTUAL
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2015 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.squareup.otto;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executors which run each task on its own thread, for handlers which block. Virtual threads are used when the JVM
+ * supports them, and daemon platform threads otherwise.
+ *
+ * <p>{@link ThreadMode#VIRTUAL} handlers use {@link #executor()}. Passing {@link #newExecutor()} to an
+ * {@link AsyncBus} drains each subscriber's mailbox on its own virtual thread.
+ *
+ * <p>Virtual threads are found reflectively, so this class works on every platform Otto supports.
+ */
+public final class VirtualThreads {
+  /** Factory method added to {@link Executors} along with virtual threads. */
+  private static final Method NEW_VIRTUAL_THREAD_EXECUTOR = findVirtualThreadExecutorFactory();
+
+  private static final AtomicInteger PLATFORM_THREAD_COUNT = new AtomicInteger();
+
+  private static Method findVirtualThreadExecutorFactory() {
+    try {
+      return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+    } catch (NoSuchMethodException e) {
+      return null;
+    }
+  }
+
+  /** Returns true if tasks run on virtual threads, or false if they fall back to platform threads. */
+  public static boolean isSupported() {
+    return NEW_VIRTUAL_THREAD_EXECUTOR != null;
+  }
+
+  /**
+   * Returns a new executor which starts a thread for each task. The threads never keep the JVM alive, so the executor
+   * does not need to be shut down.
+   */
+  public static Executor newExecutor() {
+    if (NEW_VIRTUAL_THREAD_EXECUTOR != null) {
+      try {
+        return (Executor) NEW_VIRTUAL_THREAD_EXECUTOR.invoke(null);
+      } catch (IllegalAccessException e) {
+        throw new AssertionError(e);
+      } catch (InvocationTargetException e) {
+        throw new RuntimeException("Unable to create virtual thread executor.", e.getCause());
+      }
+    }
+    return Executors.newCachedThreadPool(new ThreadFactory() {
+      @Override public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "Otto-Blocking-" + PLATFORM_THREAD_COUNT.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+  }
+
+  /** Returns the executor shared by every bus for {@link ThreadMode#VIRTUAL} handlers. It is created on first use. */
+  public static Executor executor() {
+    return SharedExecutor.INSTANCE;
+  }
+
+  private static final class SharedExecutor {
+    static final Executor INSTANCE = newExecutor();
+  }
+
+  private VirtualThreads() {
+    // No instances.
+  }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2015 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.squareup.otto;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * How a {@link RingBufferBus} thread waits, either a consumer for events to be published or the producer for room in
+ * the ring. Strategies trade CPU use for latency.
+ */
+public interface WaitStrategy {
+
+  /**
+   * Waits briefly before the caller checks again.
+   *
+   * @param attempts Number of times this method has been called during the current wait, starting at 0.
+   */
+  void idle(int attempts);
+
+
+  /**
+   * A {@link WaitStrategy} which spins, for the lowest latency at the cost of a busy core per waiting thread. Only
+   * suitable when every consumer, and the poster, has a core to itself.
+   */
+  WaitStrategy BUSY_SPIN = new WaitStrategy() {
+    @Override public void idle(int attempts) {
+      // Check again immediately.
+    }
+  };
+
+  /** A {@link WaitStrategy} which spins briefly and then yields, letting other threads use the core. */
+  WaitStrategy YIELD = new WaitStrategy() {
+    private static final int SPINS = 100;
+
+    @Override public void idle(int attempts) {
+      if (attempts >= SPINS) {
+        Thread.yield();
+      }
+    }
+  };
+
+  /** A {@link WaitStrategy} which spins, then yields, then parks, using little CPU when events are infrequent. */
+  WaitStrategy PARK = new WaitStrategy() {
+    private static final int SPINS = 100;
+    private static final int YIELDS = 200;
+    private static final long PARK_NANOS = 100000L;
+
+    @Override public void idle(int attempts) {
+      if (attempts >= YIELDS) {
+        LockSupport.parkNanos(PARK_NANOS);
+      } else if (attempts >= SPINS) {
+        Thread.yield();
+      }
+    }
+  };
+
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2015 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.otto;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+
+/**
+ * Weak reference to an object registered with {@link Bus#registerWeakly(Object)}. The object's handlers and producers
+ * hold this in place of the object, so that the bus does not keep it alive.
+ *
+ * <p>Two weak targets are equal while they refer to the same object. A cleared target is equal only to itself.
+ */
+final class WeakTarget extends WeakReference<Object> {
+  private final int hashCode;
+
+  WeakTarget(Object referent, ReferenceQueue<Object> queue) {
+    super(referent, queue);
+    hashCode = System.identityHashCode(referent);
+  }
+
+  @Override public int hashCode() {
+    return hashCode;
+  }
+
+  @Override public boolean equals(Object obj) {
+    if (this == obj) {
+      return true;
+    }
+    if (!(obj instanceof WeakTarget)) {
+      return false;
+    }
+    Object referent = get();
+    return referent != null && referent == ((WeakTarget) obj).get();
+  }
+}
@@ -0,0 +1,474 @@
+/*
+ * Copyright (C) 2015 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.squareup.otto;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class AsyncBusTest {
+  private static final int EVENT_COUNT = 1000;
+  private static final long TIMEOUT_SECONDS = 10;
+
+  private ExecutorService executor;
+  private AsyncBus bus;
+
+  @Before public void setUp() {
+    executor = Executors.newFixedThreadPool(4);
+    bus = new AsyncBus("test-bus", executor);
+  }
+
+  @After public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test public void deliversOnExecutorThread() throws Exception {
+    final List<Thread> threads = Collections.synchronizedList(new ArrayList<Thread>());
+    bus.register(new Object() {
+      @Subscribe public void onString(String event) {
+        threads.add(Thread.currentThread());
+      }
+    });
+
+    bus.post("hello");
+    bus.flush();
+
+    assertEquals(1, threads.size());
+    assertNotSame(Thread.currentThread(), threads.get(0));
+  }
+
+  @Test public void eachSubscriberSeesEventsInPostOrder() throws Exception {
+    OrderRecorder first = new OrderRecorder();
+    OrderRecorder second = new OrderRecorder();
+    bus.register(first);
+    bus.register(second);
+
+    for (int i = 0; i < EVENT_COUNT; i++) {
+      bus.post(i);
+    }
+    assertTrue(bus.awaitQuiescence(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+    first.assertInOrder();
+    second.assertInOrder();
+  }
+
+  @Test public void subscriberHandlersNeverOverlap() throws Exception {
+    OrderRecorder recorder = new OrderRecorder();
+    bus.register(recorder);
+
+    for (int i = 0; i < EVENT_COUNT; i++) {
+      bus.post(i);
+      bus.post("event " + i);
+    }
+    bus.flush();
+
+    assertFalse("Handlers of one subscriber ran concurrently.", recorder.overlapped);
+    recorder.assertInOrder();
+    assertEquals(EVENT_COUNT, recorder.strings.get());
+  }
+
+  @Test public void differentSubscribersRunInParallel() throws Exception {
+    final CountDownLatch bothRunning = new CountDownLatch(2);
+    Object listener = new Object() {
+      @Subscribe public void onString(String event) throws InterruptedException {
+        bothRunning.countDown();
+        bothRunning.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+      }
+    };
+    Object other = new Object() {
+      @Subscribe public void onString(String event) throws InterruptedException {
+        bothRunning.countDown();
+        bothRunning.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+      }
+    };
+    bus.register(listener);
+    bus.register(other);
+
+    bus.post("hello");
+
+    assertTrue(bothRunning.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    bus.flush();
+  }
+
+  @Test public void shutdownDrainsOutstandingEventsAndRejectsNewOnes() throws Exception {
+    final CountDownLatch release = new CountDownLatch(1);
+    final AtomicInteger received = new AtomicInteger();
+    bus.register(new Object() {
+      @Subscribe public void onString(String event) throws InterruptedException {
+        release.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        received.incrementAndGet();
+      }
+    });
+
+    bus.post("one");
+    bus.post("two");
+    bus.shutdown();
+    assertTrue(bus.isShutdown());
+
+    try {
+      bus.post("three");
+      fail("Should not accept events after shutdown.");
+    } catch (IllegalStateException expected) {
+    }
+
+    release.countDown();
+    assertTrue(bus.awaitTermination(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    assertEquals(2, received.get());
+  }
+
+  @Test public void awaitTerminationRequiresShutdown() throws Exception {
+    try {
+      bus.awaitTermination(1, TimeUnit.SECONDS);
+      fail("Should require shutdown first.");
+    } catch (IllegalStateException expected) {
+    }
+  }
+
+  @Test public void throwingHandlerDoesNotStallItsMailbox() throws Exception {
+    final List<Throwable> uncaught = Collections.synchronizedList(new ArrayList<Throwable>());
+    executor.shutdownNow();
+    executor = Executors.newFixedThreadPool(1, new ThreadFactory() {
+      @Override public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable);
+        thread.setUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+          @Override public void uncaughtException(Thread thread, Throwable t) {
+            uncaught.add(t);
+          }
+        });
+        return thread;
+      }
+    });
+    bus = new AsyncBus("test-bus", executor);
+    final List<String> received = Collections.synchronizedList(new ArrayList<String>());
+    bus.register(new Object() {
+      @Subscribe public void onString(String event) {
+        received.add(event);
+        if ("boom".equals(event)) {
+          throw new IllegalArgumentException(event);
+        }
+      }
+    });
+
+    bus.post("boom");
+    bus.post("after");
+    assertTrue(bus.awaitQuiescence(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+    assertEquals(2, received.size());
+    assertEquals("boom", received.get(0));
+    assertEquals("after", received.get(1));
+    assertEquals(1, uncaught.size());
+    assertTrue(uncaught.get(0).getCause() instanceof IllegalArgumentException);
+  }
+
+  @Test public void unregisteredSubscriberStopsReceiving() throws Exception {
+    final CountDownLatch release = new CountDownLatch(1);
+    final AtomicInteger received = new AtomicInteger();
+    Object listener = new Object() {
+      @Subscribe public void onString(String event) throws InterruptedException {
+        release.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        received.incrementAndGet();
+      }
+    };
+    bus.register(listener);
+
+    bus.post("delivered");
+    bus.post("dropped");
+    bus.unregister(listener);
+    release.countDown();
+    bus.flush();
+
+    // The first event may already be running when unregister is called; the second one must never be delivered.
+    assertTrue(received.get() <= 1);
+  }
+
+  @Test public void dropNewestKeepsOldestEvents() throws Exception {
+    QueueingExecutor paused = new QueueingExecutor();
+    AsyncBus bounded = new AsyncBus(ThreadEnforcer.ANY, "bounded", paused, 2, BackpressurePolicy.DROP_NEWEST);
+    StringCatcher catcher = new StringCatcher();
+    bounded.register(catcher);
+
+    postStrings(bounded, "one", "two", "three", "four");
+    paused.runAll();
+
+    assertEquals(Arrays.asList("one", "two"), catcher.getEvents());
+    assertEquals(2, bounded.getDroppedEventCount());
+    assertEquals(2, bounded.getDroppedEventCount(catcher));
+    assertTrue(bounded.awaitQuiescence(0, TimeUnit.SECONDS));
+  }
+
+  @Test public void dropOldestKeepsNewestEvents() throws Exception {
+    QueueingExecutor paused = new QueueingExecutor();
+    AsyncBus bounded = new AsyncBus(ThreadEnforcer.ANY, "bounded", paused, 2, BackpressurePolicy.DROP_OLDEST);
+    StringCatcher catcher = new StringCatcher();
+    bounded.register(catcher);
+
+    postStrings(bounded, "one", "two", "three", "four");
+    paused.runAll();
+
+    assertEquals(Arrays.asList("three", "four"), catcher.getEvents());
+    assertEquals(2, bounded.getDroppedEventCount());
+    assertTrue(bounded.awaitQuiescence(0, TimeUnit.SECONDS));
+  }
+
+  @Test public void failRejectsPostToFullMailbox() throws Exception {
+    QueueingExecutor paused = new QueueingExecutor();
+    AsyncBus bounded = new AsyncBus(ThreadEnforcer.ANY, "bounded", paused, 1, BackpressurePolicy.FAIL);
+    StringCatcher catcher = new StringCatcher();
+    bounded.register(catcher);
+
+    bounded.post("one");
+    try {
+      bounded.post("two");
+      fail("Should reject events for a full mailbox.");
+    } catch (IllegalStateException expected) {
+    }
+    paused.runAll();
+
+    assertEquals(Arrays.asList("one"), catcher.getEvents());
+    assertEquals(1, bounded.getDroppedEventCount());
+  }
+
+  @Test public void blockWaitsForRoom() throws Exception {
+    final CountDownLatch release = new CountDownLatch(1);
+    final List<String> received = Collections.synchronizedList(new ArrayList<String>());
+    final AsyncBus bounded = new AsyncBus(ThreadEnforcer.ANY, "bounded", executor, 1, BackpressurePolicy.BLOCK);
+    bounded.register(new Object() {
+      @Subscribe public void onString(String event) throws InterruptedException {
+        release.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        received.add(event);
+      }
+    });
+
+    Thread poster = new Thread(new Runnable() {
+      @Override public void run() {
+        postStrings(bounded, "one", "two", "three");
+      }
+    });
+    poster.start();
+    while (poster.getState() != Thread.State.WAITING) {
+      assertTrue("Poster finished without blocking.", poster.isAlive());
+      Thread.yield();
+    }
+
+    release.countDown();
+    poster.join(TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS));
+    bounded.flush();
+
+    assertEquals(Arrays.asList("one", "two", "three"), received);
+    assertEquals(0, bounded.getDroppedEventCount());
+  }
+
+  @Test public void blockAllowsHandlerToPostToItsOwnMailbox() throws Exception {
+    final List<Integer> received = Collections.synchronizedList(new ArrayList<Integer>());
+    final AsyncBus bounded = new AsyncBus(ThreadEnforcer.ANY, "bounded", executor, 1, BackpressurePolicy.BLOCK);
+    bounded.register(new Object() {
+      @Subscribe public void onInteger(Integer event) {
+        received.add(event);
+        if (event < 3) {
+          bounded.post(event + 1);
+          bounded.post(event + 1);
+        }
+      }
+    });
+
+    bounded.post(1);
+
+    assertTrue(bounded.awaitQuiescence(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    assertEquals(7, received.size());
+  }
+
+  @Test public void subscriberLimitsOverrideBusLimits() throws Exception {
+    QueueingExecutor paused = new QueueingExecutor();
+    AsyncBus unbounded = new AsyncBus(paused);
+    StringCatcher bounded = new StringCatcher();
+    StringCatcher free = new StringCatcher();
+    unbounded.register(bounded, 1, BackpressurePolicy.DROP_NEWEST);
+    unbounded.register(free);
+
+    postStrings(unbounded, "one", "two", "three");
+    paused.runAll();
+
+    assertEquals(Arrays.asList("one"), bounded.getEvents());
+    assertEquals(Arrays.asList("one", "two", "three"), free.getEvents());
+    assertEquals(2, unbounded.getDroppedEventCount(bounded));
+    assertEquals(0, unbounded.getDroppedEventCount(free));
+  }
+
+  @Test public void registeringWithLimitsTwiceFails() {
+    StringCatcher catcher = new StringCatcher();
+    bus.register(catcher, 1, BackpressurePolicy.BLOCK);
+    try {
+      bus.register(catcher, 1, BackpressurePolicy.BLOCK);
+      fail("Should not register the same object twice.");
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+
+  @Test public void registrationHandleDiscardsMailbox() throws Exception {
+    QueueingExecutor paused = new QueueingExecutor();
+    AsyncBus bounded = new AsyncBus(paused);
+    StringCatcher catcher = new StringCatcher();
+    Registration registration = bounded.register(catcher, 1, BackpressurePolicy.DROP_NEWEST);
+    postStrings(bounded, "one", "two");
+    assertEquals(1, bounded.getDroppedEventCount(catcher));
+
+    registration.unregister();
+    paused.runAll();
+
+    assertEquals(0, bounded.getDroppedEventCount(catcher));
+    assertTrue(catcher.getEvents().isEmpty());
+    bounded.register(catcher, 1, BackpressurePolicy.DROP_NEWEST);
+  }
+
+  @Test public void postRacingUnregisterDoesNotRecreateMailbox() throws Exception {
+    QueueingExecutor paused = new QueueingExecutor();
+    AsyncBus racing = new AsyncBus(paused);
+    StringCatcher catcher = new StringCatcher();
+    racing.register(catcher);
+    // A post which looked up the handler just before it was unregistered.
+    EventHandler handler = racing.getDispatchPlan(String.class).handlers[0];
+    racing.unregister(catcher);
+
+    racing.dispatch("late", handler);
+    paused.runAll();
+
+    assertTrue(catcher.getEvents().isEmpty());
+    // Registering with limits fails if a mailbox was left behind for the object.
+    racing.register(catcher, 1, BackpressurePolicy.DROP_NEWEST);
+  }
+
+  @Test public void burstOfConflatableEventsCollapsesInMailbox() throws Exception {
+    QueueingExecutor paused = new QueueingExecutor();
+    AsyncBus conflating = new AsyncBus(paused);
+    SnapshotCatcher catcher = new SnapshotCatcher();
+    conflating.register(catcher);
+
+    for (int i = 0; i < EVENT_COUNT; i++) {
+      conflating.post(new Snapshot("location", i));
+    }
+    conflating.post(new Snapshot("battery", 1));
+    paused.runAll();
+
+    assertEquals("[location=" + (EVENT_COUNT - 1) + ", battery=1]", catcher.snapshots.toString());
+    assertTrue(conflating.awaitQuiescence(0, TimeUnit.SECONDS));
+  }
+
+  @Test public void conflationNeedsNoRoomInFullMailbox() throws Exception {
+    QueueingExecutor paused = new QueueingExecutor();
+    AsyncBus bounded = new AsyncBus(ThreadEnforcer.ANY, "bounded", paused, 1, BackpressurePolicy.FAIL);
+    SnapshotCatcher catcher = new SnapshotCatcher();
+    bounded.register(catcher);
+
+    bounded.post(new Snapshot("location", 1));
+    bounded.post(new Snapshot("location", 2));
+    paused.runAll();
+
+    assertEquals("[location=2]", catcher.snapshots.toString());
+    assertEquals(0, bounded.getDroppedEventCount());
+  }
+
+  private static void postStrings(Bus bus, String... events) {
+    for (String event : events) {
+      bus.post(event);
+    }
+  }
+
+  /** Runs tasks only when the test says so, standing in for a backed-up executor. */
+  static class QueueingExecutor implements Executor {
+    private final List<Runnable> tasks = new ArrayList<Runnable>();
+
+    @Override public void execute(Runnable command) {
+      tasks.add(command);
+    }
+
+    void runAll() {
+      while (!tasks.isEmpty()) {
+        runNext();
+      }
+    }
+
+    void runNext() {
+      tasks.remove(0).run();
+    }
+
+    boolean isEmpty() {
+      return tasks.isEmpty();
+    }
+  }
+
+  public static class SnapshotCatcher {
+    final List<Snapshot> snapshots = new ArrayList<Snapshot>();
+
+    @Subscribe public void onSnapshot(Snapshot snapshot) {
+      snapshots.add(snapshot);
+    }
+  }
+
+  public static class OrderRecorder {
+    final List<Integer> integers = new ArrayList<Integer>();
+    final AtomicInteger strings = new AtomicInteger();
+    private final AtomicInteger active = new AtomicInteger();
+    volatile boolean overlapped;
+
+    @Subscribe public void onInteger(Integer event) {
+      enter();
+      integers.add(event);
+      exit();
+    }
+
+    @Subscribe public void onString(String event) {
+      enter();
+      strings.incrementAndGet();
+      exit();
+    }
+
+    private void enter() {
+      if (active.incrementAndGet() != 1) {
+        overlapped = true;
+      }
+      Thread.yield();
+    }
+
+    private void exit() {
+      active.decrementAndGet();
+    }
+
+    void assertInOrder() {
+      assertEquals(EVENT_COUNT, integers.size());
+      for (int i = 0; i < EVENT_COUNT; i++) {
+        assertEquals(Integer.valueOf(i), integers.get(i));
+      }
+    }
+  }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2015 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.squareup.otto;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import org.junit.Test;
+
+import static junit.framework.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Checks that posting to an existing subscriber does not allocate once the bus has warmed up.
+ *
+ * <p>The subscriber is found by the real handler finder and called through a {@link ListenerDispatcher} like the one
+ * the annotation processor generates. Subscribers without a dispatcher are called with
+ * {@link java.lang.reflect.Method#invoke}, which allocates an argument array on every call, so the same check cannot
+ * pass for them.
+ */
+public class BusAllocationTest {
+  private static final int WARM_UP_POSTS = 20000;
+  private static final int MEASURED_POSTS = 10000;
+  private static final int MEASURED_ROUNDS = 3;
+
+  @Test public void steadyStatePostsDoNotAllocate() throws Exception {
+    ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+    com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+    assumeTrue(allocations.isThreadAllocatedMemorySupported());
+    allocations.setThreadAllocatedMemoryEnabled(true);
+    long threadId = Thread.currentThread().getId();
+
+    Bus bus = new Bus(ThreadEnforcer.ANY, "allocations");
+    IndexedStringCatcher catcher = new IndexedStringCatcher();
+    bus.register(catcher);
+    Object event = "Hello";
+    for (int i = 0; i < WARM_UP_POSTS; i++) {
+      bus.post(event);
+    }
+
+    // The JIT may still deoptimize once in a while, which allocates a little on this thread. Allocating on every post
+    // would show up in every round, so the quietest round must allocate nothing.
+    long fewestBytes = Long.MAX_VALUE;
+    int delivered = catcher.events.size();
+    for (int round = 0; round < MEASURED_ROUNDS; round++) {
+      // Clearing keeps the list's capacity, so recording each event does not allocate either.
+      catcher.events.clear();
+      allocations.getThreadAllocatedBytes(threadId);
+      long before = allocations.getThreadAllocatedBytes(threadId);
+      for (int i = 0; i < MEASURED_POSTS; i++) {
+        bus.post(event);
+      }
+      long after = allocations.getThreadAllocatedBytes(threadId);
+      fewestBytes = Math.min(fewestBytes, after - before);
+      delivered += catcher.events.size();
+    }
+
+    assertEquals(WARM_UP_POSTS + MEASURED_ROUNDS * MEASURED_POSTS, delivered);
+    assertEquals(0, fewestBytes);
+  }
+}
@@ -19,14 +19,18 @@ package com.squareup.otto;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
 import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertSame;
 import static junit.framework.Assert.assertTrue;
 import static junit.framework.Assert.fail;
 
@@ -258,10 +262,70 @@ public class BusTest {
     HierarchyFixture fixture = new HierarchyFixture();
     Set<Class<?>> hierarchy = bus.flattenHierarchy(fixture.getClass());
 
-    assertEquals(3, hierarchy.size());
-    assertContains(Object.class, hierarchy);
-    assertContains(HierarchyFixtureParent.class, hierarchy);
-    assertContains(HierarchyFixture.class, hierarchy);
+    assertEquals(Arrays.<Class<?>>asList(HierarchyFixture.class, HierarchyFixtureParent.class, Object.class,
+        HierarchyFixtureSubinterface.class, HierarchyFixtureInterface.class), new ArrayList<Class<?>>(hierarchy));
+    assertSame(hierarchy, bus.flattenHierarchy(fixture.getClass()));
+  }
+
+  @Test public void interfaceHandlersReceiveImplementations() {
+    final List<Object> received = new ArrayList<Object>();
+    bus.register(new Object() {
+      @Subscribe public void onInterface(HierarchyFixtureInterface event) {
+        received.add(event);
+      }
+    });
+    HierarchyFixture fixture = new HierarchyFixture();
+    HierarchyFixtureParent parent = new HierarchyFixtureParent();
+
+    bus.post(fixture);
+    bus.post(parent);
+    bus.post(EVENT);
+
+    assertEquals(Arrays.<Object>asList(fixture, parent), received);
+  }
+
+  @Test public void dispatchPlanCoversHierarchyAndIsCached() {
+    StringCatcher catcher = new StringCatcher();
+    bus.register(catcher);
+    bus.register(new Object() {
+      @Subscribe public void eat(Object food) {
+      }
+    });
+
+    Bus.DispatchPlan plan = bus.getDispatchPlan(String.class);
+    assertEquals(2, plan.handlers.length);
+    assertSame(plan, bus.getDispatchPlan(String.class));
+  }
+
+  @Test public void dispatchPlanRebuiltWhenHandlersChange() {
+    bus.post(EVENT);
+    Bus.DispatchPlan empty = bus.getDispatchPlan(String.class);
+    assertEquals(0, empty.handlers.length);
+
+    StringCatcher catcher = new StringCatcher();
+    bus.register(catcher);
+    bus.post(EVENT);
+    assertEquals(Arrays.asList(EVENT), catcher.getEvents());
+    assertEquals(1, bus.getDispatchPlan(String.class).handlers.length);
+
+    bus.unregister(catcher);
+    assertEquals(0, bus.getDispatchPlan(String.class).handlers.length);
+  }
+
+  @Test public void postingThreadDoesNotRetainCollectedBus() throws InterruptedException {
+    WeakReference<Bus> shortLivedBus = postOnShortLivedBus();
+    for (int i = 0; i < 20 && shortLivedBus.get() != null; i++) {
+      System.gc();
+      Thread.sleep(10);
+    }
+    assertNull("Bus should have been collected.", shortLivedBus.get());
+  }
+
+  private static WeakReference<Bus> postOnShortLivedBus() {
+    Bus shortLivedBus = new Bus(ThreadEnforcer.ANY);
+    shortLivedBus.register(new StringCatcher());
+    shortLivedBus.post(EVENT);
+    return new WeakReference<Bus>(shortLivedBus);
   }
 
   @Test public void missingSubscribe() {
@@ -344,6 +408,350 @@ public class BusTest {
     }
   }
 
+  @Test public void postAllDeliversEventsInOrder() {
+    final List<Object> events = new ArrayList<Object>();
+    bus.register(new Object() {
+      @Subscribe public void onObject(Object event) {
+        events.add(event);
+      }
+    });
+
+    bus.postAll("one", 2, "three", 4);
+
+    assertEquals(Arrays.<Object>asList("one", 2, "three", 4), events);
+  }
+
+  @Test public void postAllEnforcesOnce() {
+    final int[] enforced = new int[1];
+    Bus countingBus = new Bus(new ThreadEnforcer() {
+      @Override public void enforce(Bus bus) {
+        enforced[0]++;
+      }
+    });
+    StringCatcher catcher = new StringCatcher();
+    countingBus.register(catcher);
+    enforced[0] = 0;
+
+    countingBus.postAll(Arrays.asList("one", "two", "three"));
+
+    assertEquals(1, enforced[0]);
+    assertEquals(Arrays.asList("one", "two", "three"), catcher.getEvents());
+  }
+
+  @Test public void postAllWrapsUnhandledEventsInDeadEvents() {
+    GhostCatcher ghost = new GhostCatcher();
+    bus.register(ghost);
+
+    bus.postAll(1, 2);
+
+    List<DeadEvent> events = ghost.getEvents();
+    assertEquals(2, events.size());
+    assertEquals(1, events.get(0).event);
+    assertEquals(2, events.get(1).event);
+  }
+
+  @Test public void postAllDeliversNestedPostsBeforeNextEvent() {
+    final List<Object> events = new ArrayList<Object>();
+    bus.register(new Object() {
+      @Subscribe public void onString(String event) {
+        events.add(event);
+        bus.post(event.length());
+      }
+
+      @Subscribe public void onInteger(Integer event) {
+        events.add(event);
+      }
+    });
+
+    bus.postAll("a", "bb");
+
+    assertEquals(Arrays.<Object>asList("a", 1, "bb", 2), events);
+  }
+
+  @Test public void postAllSeesHandlersRegisteredMidBatch() {
+    final StringCatcher late = new StringCatcher();
+    bus.register(new Object() {
+      @Subscribe public void onString(String event) {
+        if ("register".equals(event)) {
+          bus.register(late);
+        }
+      }
+    });
+
+    bus.postAll("register", "after");
+
+    assertEquals(Arrays.asList("after"), late.getEvents());
+  }
+
+  @Test public void postAllRejectsNullEventsBeforePosting() {
+    StringCatcher catcher = new StringCatcher();
+    bus.register(catcher);
+    try {
+      bus.postAll("one", null);
+      fail("Should not accept null events.");
+    } catch (NullPointerException expected) {
+    }
+    assertTrue(catcher.getEvents().isEmpty());
+  }
+
+  @Test public void registerAllRegistersEveryObject() {
+    StringCatcher first = new StringCatcher();
+    StringCatcher second = new StringCatcher();
+    bus.registerAll(Arrays.asList(first, second));
+
+    bus.post(EVENT);
+
+    assertEquals(Arrays.asList(EVENT), first.getEvents());
+    assertEquals(Arrays.asList(EVENT), second.getEvents());
+  }
+
+  @Test public void registerAllCallsEachProducerOnce() {
+    CountingProducer producer = new CountingProducer();
+    StringCatcher existing = new StringCatcher();
+    bus.register(existing);
+    StringCatcher first = new StringCatcher();
+    StringCatcher second = new StringCatcher();
+
+    bus.registerAll(Arrays.asList(first, producer, second));
+
+    assertEquals(1, producer.produced);
+    assertEquals(Arrays.asList(CountingProducer.VALUE), existing.getEvents());
+    assertEquals(Arrays.asList(CountingProducer.VALUE), first.getEvents());
+    assertEquals(Arrays.asList(CountingProducer.VALUE), second.getEvents());
+
+    StringCatcher third = new StringCatcher();
+    StringCatcher fourth = new StringCatcher();
+    bus.registerAll(Arrays.asList(third, fourth));
+
+    assertEquals(2, producer.produced);
+    assertEquals(Arrays.asList(CountingProducer.VALUE), fourth.getEvents());
+  }
+
+  @Test public void registerAllPublishesHandlersOnce() {
+    bus.register(new StringCatcher());
+    int version = bus.getDispatchPlan(String.class).version;
+
+    bus.registerAll(Arrays.asList(new StringCatcher(), new StringCatcher(), new StringCatcher()));
+
+    Bus.DispatchPlan plan = bus.getDispatchPlan(String.class);
+    assertEquals(version + 1, plan.version);
+    assertEquals(4, plan.handlers.length);
+  }
+
+  @Test public void failedRegisterAllLeavesBusUnchanged() {
+    StringCatcher registered = new StringCatcher();
+    bus.register(registered);
+    StringCatcher fresh = new StringCatcher();
+
+    try {
+      bus.registerAll(Arrays.asList(fresh, registered));
+      fail();
+    } catch (IllegalArgumentException e) {
+      assertEquals("Object already registered.", e.getMessage());
+    }
+    try {
+      bus.registerAll(Arrays.asList(new StringProducer(), new StringProducer()));
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+
+    assertEquals(1, bus.getHandlersForEventType(String.class).size());
+    assertNull(bus.getProducerForEventType(String.class));
+  }
+
+  @Test public void registerAllInstallsNoProducerWhenALaterOneConflicts() {
+    bus.register(new StringProducer());
+    Object integerProducer = new Object() {
+      @Produce public Integer produce() {
+        return 1;
+      }
+    };
+
+    try {
+      bus.registerAll(Arrays.asList(integerProducer, new StringProducer()));
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+
+    assertNull(bus.getProducerForEventType(Integer.class));
+    bus.register(new Object() {
+      @Produce public Integer produce() {
+        return 2;
+      }
+    });
+  }
+
+  @Test public void unregisterAllRemovesEveryObject() {
+    StringCatcher first = new StringCatcher();
+    StringCatcher second = new StringCatcher();
+    StringCatcher kept = new StringCatcher();
+    StringProducer producer = new StringProducer();
+    bus.registerAll(Arrays.asList(first, second, kept, producer));
+    EventHandler firstHandler = bus.getHandlersForEventType(String.class).iterator().next();
+
+    bus.unregisterAll(Arrays.asList(first, producer, second));
+
+    assertFalse(firstHandler.isValid());
+    assertNull(bus.getProducerForEventType(String.class));
+    assertEquals(1, bus.getHandlersForEventType(String.class).size());
+    bus.post(EVENT);
+    assertEquals(Arrays.asList(StringProducer.VALUE, EVENT), kept.getEvents());
+    assertEquals(Arrays.asList(StringProducer.VALUE), first.getEvents());
+  }
+
+  @Test public void failedUnregisterAllLeavesBusUnchanged() {
+    StringCatcher registered = new StringCatcher();
+    bus.register(registered);
+
+    try {
+      bus.unregisterAll(Arrays.asList(registered, new StringCatcher()));
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+
+    bus.post(EVENT);
+    assertEquals(Arrays.asList(EVENT), registered.getEvents());
+  }
+
+  @Test public void registrationHandleUnregisters() {
+    StringCatcher catcher = new StringCatcher();
+    StringProducer producer = new StringProducer();
+    Registration catcherRegistration = bus.register(catcher);
+    Registration producerRegistration = bus.register(producer);
+    assertSame(catcher, catcherRegistration.getTarget());
+    assertTrue(catcherRegistration.isRegistered());
+
+    catcherRegistration.unregister();
+    producerRegistration.unregister();
+
+    assertFalse(catcherRegistration.isRegistered());
+    assertNull(bus.getProducerForEventType(String.class));
+    assertTrue(bus.getHandlersForEventType(String.class).isEmpty());
+    bus.post(EVENT);
+    assertEquals(Arrays.asList(StringProducer.VALUE), catcher.getEvents());
+    try {
+      bus.unregister(catcher);
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+
+  @Test public void staleRegistrationHandleDoesNothing() {
+    StringCatcher catcher = new StringCatcher();
+    Registration first = bus.register(catcher);
+    first.unregister();
+    first.unregister();
+    Registration second = bus.register(catcher);
+
+    first.unregister();
+    bus.post(EVENT);
+
+    assertTrue(second.isRegistered());
+    assertEquals(Arrays.asList(EVENT), catcher.getEvents());
+  }
+
+  @Test public void objectWithoutMethodsIsNotRecorded() {
+    Object plain = new Object();
+    Registration first = bus.register(plain);
+    Registration second = bus.register(plain);
+
+    assertFalse(first.isRegistered());
+    assertFalse(second.isRegistered());
+    bus.unregister(plain);
+    bus.registerAll(Arrays.asList(plain));
+    bus.registerWeakly(plain);
+  }
+
+  @Test public void unregisterDoesNotSearchForMethodsAgain() {
+    final int[] searches = new int[1];
+    Bus countingBus = new Bus(ThreadEnforcer.ANY, BUS_IDENTIFIER, new HandlerFinder() {
+      @Override public Map<Class<?>, EventProducer> findAllProducers(Object listener) {
+        searches[0]++;
+        return HandlerFinder.ANNOTATED.findAllProducers(listener);
+      }
+
+      @Override public Map<Class<?>, Set<EventHandler>> findAllSubscribers(Object listener) {
+        searches[0]++;
+        return HandlerFinder.ANNOTATED.findAllSubscribers(listener);
+      }
+    });
+    StringCatcher first = new StringCatcher();
+    StringCatcher second = new StringCatcher();
+    StringCatcher third = new StringCatcher();
+    Registration registration = countingBus.register(first);
+    countingBus.registerAll(Arrays.asList(second, third));
+    int afterRegistering = searches[0];
+
+    registration.unregister();
+    countingBus.unregister(second);
+    countingBus.unregisterAll(Arrays.asList(third));
+
+    assertEquals(afterRegistering, searches[0]);
+    assertTrue(countingBus.getHandlersForEventType(String.class).isEmpty());
+  }
+
+  @Test public void newProducerIsCalledOnceForAllExistingHandlers() {
+    StringCatcher first = new StringCatcher();
+    StringCatcher second = new StringCatcher();
+    bus.register(first);
+    bus.register(second);
+    CountingProducer producer = new CountingProducer();
+
+    bus.register(producer);
+
+    assertEquals(1, producer.produced);
+    assertEquals(Arrays.asList(CountingProducer.VALUE), first.getEvents());
+    assertEquals(Arrays.asList(CountingProducer.VALUE), second.getEvents());
+  }
+
+  @Test public void producerIsCalledOnceForAllHandlersOfNewObject() {
+    CountingProducer producer = new CountingProducer();
+    bus.register(producer);
+    final List<String> received = new ArrayList<String>();
+
+    bus.register(new Object() {
+      @Subscribe public void first(String event) {
+        received.add(event);
+      }
+
+      @Subscribe public void second(String event) {
+        received.add(event);
+      }
+    });
+
+    assertEquals(1, producer.produced);
+    assertEquals(Arrays.asList(CountingProducer.VALUE, CountingProducer.VALUE), received);
+  }
+
+  @Test public void perHandlerProducerIsCalledForEachHandler() {
+    bus.register(new StringCatcher());
+    bus.register(new StringCatcher());
+    PerHandlerProducer producer = new PerHandlerProducer();
+
+    bus.register(producer);
+
+    assertEquals(2, producer.produced);
+  }
+
+  public static class PerHandlerProducer {
+    int produced;
+
+    @Produce(perHandler = true) public String produce() {
+      produced++;
+      return "fresh " + produced;
+    }
+  }
+
+  public static class CountingProducer {
+    static final String VALUE = "counted";
+    int produced;
+
+    @Produce public String produce() {
+      produced++;
+      return VALUE;
+    }
+  }
+
   private class ExceptionThrowingProducer {
     @Produce public String produceThingsExceptionally() {
       throw new IllegalStateException("Bogus!");
@@ -361,11 +769,6 @@ public class BusTest {
     }
   }
 
-  private <T> void assertContains(T element, Collection<T> collection) {
-    assertTrue("Collection must contain " + element,
-        collection.contains(element));
-  }
-
   /**
    * A collector for DeadEvents.
    *
@@ -0,0 +1,217 @@
+/*
+ * Copyright (C) 2015 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.otto;
+
+import com.squareup.otto.AsyncBusTest.QueueingExecutor;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DeferredProducerTest {
+  private static final String VALUE = "computed";
+
+  private final QueueingExecutor mainThread = new QueueingExecutor();
+  private final QueueingExecutor background = new QueueingExecutor();
+  private Bus bus;
+
+  @Before public void setUp() {
+    bus = new Bus(ThreadEnforcer.ANY, "test-bus", mainThread, background);
+  }
+
+  @Test public void futureIsDeliveredOnMainThreadOnceComplete() {
+    final FutureTask<String> task = new FutureTask<String>(new Callable<String>() {
+      @Override public String call() {
+        return VALUE;
+      }
+    });
+    bus.register(new Object() {
+      @Produce public Future<String> produce() {
+        return task;
+      }
+    });
+    StringCatcher catcher = new StringCatcher();
+
+    bus.register(catcher);
+    assertTrue(catcher.getEvents().isEmpty());
+
+    task.run();
+    background.runAll();
+    assertTrue(catcher.getEvents().isEmpty());
+    mainThread.runAll();
+    assertEquals(Arrays.asList(VALUE), catcher.getEvents());
+  }
+
+  @Test public void completedFutureIsDeliveredDuringRegister() {
+    final FutureTask<String> task = new FutureTask<String>(new Callable<String>() {
+      @Override public String call() {
+        return VALUE;
+      }
+    });
+    task.run();
+    bus.register(new Object() {
+      @Produce public Future<String> produce() {
+        return task;
+      }
+    });
+    StringCatcher catcher = new StringCatcher();
+
+    bus.register(catcher);
+
+    assertEquals(Arrays.asList(VALUE), catcher.getEvents());
+  }
+
+  @Test public void callableRunsInBackgroundOncePerRegistration() {
+    final int[] calls = new int[1];
+    bus.register(new StringCatcher());
+    bus.register(new StringCatcher());
+    StringCatcher catcher = new StringCatcher();
+    bus.register(catcher);
+
+    bus.register(new Object() {
+      @Produce public Callable<String> produce() {
+        return new Callable<String>() {
+          @Override public String call() {
+            calls[0]++;
+            return VALUE;
+          }
+        };
+      }
+    });
+    assertEquals(0, calls[0]);
+
+    background.runAll();
+    mainThread.runAll();
+    assertEquals(1, calls[0]);
+    assertEquals(Arrays.asList(VALUE), catcher.getEvents());
+  }
+
+  @Test public void handlerUnregisteredBeforeResolutionReceivesNothing() {
+    bus.register(new Object() {
+      @Produce public Callable<String> produce() {
+        return new Callable<String>() {
+          @Override public String call() {
+            return VALUE;
+          }
+        };
+      }
+    });
+    StringCatcher catcher = new StringCatcher();
+    Registration registration = bus.register(catcher);
+
+    registration.unregister();
+    background.runAll();
+    mainThread.runAll();
+
+    assertTrue(catcher.getEvents().isEmpty());
+  }
+
+  @Test public void failedFutureIsReported() {
+    bus.register(new Object() {
+      @Produce public Callable<String> produce() {
+        return new Callable<String>() {
+          @Override public String call() throws Exception {
+            throw new Exception("no value");
+          }
+        };
+      }
+    });
+    bus.register(new StringCatcher());
+    background.runAll();
+
+    try {
+      mainThread.runAll();
+      fail();
+    } catch (RuntimeException expected) {
+      assertEquals("no value", expected.getCause().getMessage());
+    }
+  }
+
+  @Test public void pendingFutureReleasesBackgroundThreadBetweenPolls() {
+    FutureTask<String> task = registerFutureProducer();
+    StringCatcher catcher = new StringCatcher();
+    bus.register(catcher);
+
+    background.runNext();
+    assertFalse(background.isEmpty());
+
+    task.run();
+    background.runAll();
+    mainThread.runAll();
+    assertEquals(Arrays.asList(VALUE), catcher.getEvents());
+  }
+
+  @Test public void pendingFutureIsAbandonedOnceNobodyWantsIt() {
+    registerFutureProducer();
+    Registration registration = bus.register(new StringCatcher());
+
+    registration.unregister();
+    background.runAll();
+
+    assertTrue(mainThread.isEmpty());
+  }
+
+  @Test public void deferredProducerNeedsMainThreadExecutor() {
+    Bus busWithoutMainThread = new Bus(ThreadEnforcer.ANY, "test-bus", null, background);
+    try {
+      busWithoutMainThread.register(new Object() {
+        @Produce public Callable<String> produce() {
+          return null;
+        }
+      });
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+    assertNull(busWithoutMainThread.getProducerForEventType(String.class));
+  }
+
+  private FutureTask<String> registerFutureProducer() {
+    final FutureTask<String> task = new FutureTask<String>(new Callable<String>() {
+      @Override public String call() {
+        return VALUE;
+      }
+    });
+    bus.register(new Object() {
+      @Produce public Future<String> produce() {
+        return task;
+      }
+    });
+    return task;
+  }
+
+  @Test public void futureWithoutEventTypeIsRejected() {
+    try {
+      bus.register(new RawFutureProducer());
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+
+  public static class RawFutureProducer {
+    @SuppressWarnings("rawtypes")
+    @Produce public Future produce() {
+      return null;
+    }
+  }
+}
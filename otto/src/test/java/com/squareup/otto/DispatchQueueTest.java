@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2015 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.squareup.otto;
+
+import java.lang.reflect.Method;
+import org.junit.Test;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+
+public class DispatchQueueTest {
+  private final DispatchQueue queue = new DispatchQueue();
+
+  @Test public void entriesAreFirstInFirstOut() throws Exception {
+    EventHandler first = handler();
+    EventHandler second = handler();
+    queue.offer("one", first);
+    queue.offer("two", second);
+
+    assertSame("one", queue.headEvent());
+    assertSame(first, queue.headHandler());
+    queue.removeHead();
+    assertSame("two", queue.headEvent());
+    assertSame(second, queue.headHandler());
+    queue.removeHead();
+    assertTrue(queue.isEmpty());
+  }
+
+  @Test public void growingPreservesOrderAcrossWrapAround() throws Exception {
+    EventHandler handler = handler();
+    // Move the head away from index zero so that growing has to unwrap the ring.
+    for (int i = 0; i < 10; i++) {
+      queue.offer(-1, handler);
+      queue.removeHead();
+    }
+    for (int i = 0; i < 100; i++) {
+      queue.offer(i, handler);
+    }
+    for (int i = 0; i < 100; i++) {
+      assertEquals(i, queue.headEvent());
+      queue.removeHead();
+    }
+    assertTrue(queue.isEmpty());
+  }
+
+  @Test public void drainedQueueGivesUpLargeBuffers() throws Exception {
+    EventHandler handler = handler();
+    int burst = DispatchQueue.MAX_RETAINED_CAPACITY * 4;
+    for (int i = 0; i < burst; i++) {
+      queue.offer(new Snapshot("a" + i, i), handler);
+    }
+    for (int i = 0; i < burst; i++) {
+      queue.removeHead();
+    }
+    assertTrue(queue.capacity() < DispatchQueue.MAX_RETAINED_CAPACITY);
+
+    Snapshot latest = new Snapshot("a", 2);
+    queue.offer(new Snapshot("a", 1), handler);
+    queue.offer(latest, handler);
+    assertEquals(1, queue.size());
+    assertSame(latest, queue.headEvent());
+  }
+
+  @Test public void drainedQueueKeepsModerateBuffers() throws Exception {
+    EventHandler handler = handler();
+    for (int i = 0; i < DispatchQueue.MAX_RETAINED_CAPACITY; i++) {
+      queue.offer(i, handler);
+    }
+    int capacity = queue.capacity();
+    for (int i = 0; i < DispatchQueue.MAX_RETAINED_CAPACITY; i++) {
+      queue.removeHead();
+    }
+    assertEquals(capacity, queue.capacity());
+  }
+
+  @Test public void conflatableEventReplacesQueuedEventInPlace() throws Exception {
+    EventHandler handler = handler();
+    Snapshot latest = new Snapshot("a", 3);
+    assertTrue(queue.offer(new Snapshot("a", 1), handler));
+    assertTrue(queue.offer("between", handler));
+    assertFalse(queue.offer(new Snapshot("a", 2), handler));
+    assertFalse(queue.offer(latest, handler));
+
+    assertEquals(2, queue.size());
+    assertSame(latest, queue.headEvent());
+    queue.removeHead();
+    assertSame("between", queue.headEvent());
+  }
+
+  @Test public void conflationIsPerHandlerAndKey() throws Exception {
+    EventHandler first = handler();
+    EventHandler second = handler();
+    queue.offer(new Snapshot("a", 1), first);
+    queue.offer(new Snapshot("a", 1), second);
+    queue.offer(new Snapshot("b", 1), first);
+    queue.offer(new Snapshot(null, 1), first);
+    queue.offer(new Snapshot(null, 2), first);
+
+    assertEquals(5, queue.size());
+  }
+
+  @Test public void deliveredEventIsNotConflatedWith() throws Exception {
+    EventHandler handler = handler();
+    queue.offer(new Snapshot("a", 1), handler);
+    queue.removeHead();
+
+    assertFalse(queue.replaceQueued(new Snapshot("a", 2), handler));
+    assertTrue(queue.offer(new Snapshot("a", 2), handler));
+    assertEquals(1, queue.size());
+  }
+
+  @Test public void conflationSurvivesGrowingAcrossWrapAround() throws Exception {
+    EventHandler handler = handler();
+    for (int i = 0; i < 10; i++) {
+      queue.offer(-1, handler);
+      queue.removeHead();
+    }
+    queue.offer(new Snapshot("a", 0), handler);
+    for (int i = 0; i < 100; i++) {
+      queue.offer(i, handler);
+    }
+    Snapshot latest = new Snapshot("a", 1);
+    queue.offer(latest, handler);
+
+    assertEquals(101, queue.size());
+    assertSame(latest, queue.headEvent());
+  }
+
+  private EventHandler handler() throws NoSuchMethodException {
+    Method method = StringCatcher.class.getMethod("hereHaveAString", String.class);
+    return new EventHandler(new StringCatcher(), method);
+  }
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2015 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.squareup.otto;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A listener with a hand-written {@link ListenerDispatcher}, standing in for one generated by the annotation
+ * processor. The dispatcher deliberately does not know about {@link #hereHaveAnInteger(Integer)}.
+ */
+public class DispatchedStringCatcher {
+  final List<Object> events = new ArrayList<Object>();
+
+  @Subscribe public void hereHaveAString(String string) {
+    events.add(string);
+  }
+
+  @Subscribe public void hereHaveAnInteger(Integer integer) {
+    events.add(integer);
+  }
+
+  @Produce public Double produceDouble() {
+    return 1.0d;
+  }
+}
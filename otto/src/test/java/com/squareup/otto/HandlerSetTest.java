@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2015 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.squareup.otto;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import org.junit.Test;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+
+public class HandlerSetTest {
+  private static final int HANDLER_COUNT = 5000;
+
+  private final HandlerSet set = new HandlerSet();
+
+  @Test public void iteratesInRegistrationOrder() throws Exception {
+    List<EventHandler> handlers = handlers(10);
+    set.addAll(handlers.subList(0, 5));
+    set.addAll(handlers.subList(5, 10));
+
+    assertEquals(handlers, new ArrayList<EventHandler>(set));
+    assertEquals(handlers, Arrays.asList(set.snapshot()));
+  }
+
+  @Test public void higherPrioritiesComeFirstAndTiesKeepRegistrationOrder() throws Exception {
+    EventHandler first = handler(new StringCatcher(), 0);
+    EventHandler urgent = handler(new StringCatcher(), 5);
+    EventHandler second = handler(new StringCatcher(), 0);
+    EventHandler late = handler(new StringCatcher(), -5);
+    EventHandler alsoUrgent = handler(new StringCatcher(), 5);
+    set.addAll(Arrays.asList(first, urgent));
+    set.addAll(Arrays.asList(late, second, alsoUrgent));
+
+    assertEquals(Arrays.asList(urgent, alsoUrgent, first, second, late), Arrays.asList(set.snapshot()));
+  }
+
+  @Test public void addingOnlyExistingHandlersChangesNothing() throws Exception {
+    List<EventHandler> handlers = handlers(3);
+    assertTrue(set.addAll(handlers));
+    EventHandler[] snapshot = set.snapshot();
+
+    assertFalse(set.addAll(handlers));
+    assertFalse(set.add(handlers.get(0)));
+    assertSame(snapshot, set.snapshot());
+  }
+
+  @Test public void removalKeepsOrderOfRemainingHandlers() throws Exception {
+    List<EventHandler> handlers = handlers(6);
+    set.addAll(handlers);
+
+    assertTrue(set.removeAll(Arrays.asList(handlers.get(1), handlers.get(4))));
+    assertFalse(set.remove(handlers.get(1)));
+
+    assertEquals(Arrays.asList(handlers.get(0), handlers.get(2), handlers.get(3), handlers.get(5)),
+        new ArrayList<EventHandler>(set));
+    assertEquals(4, set.size());
+    assertFalse(set.contains(handlers.get(4)));
+  }
+
+  @Test public void getReturnsRegisteredInstanceForEqualHandler() throws Exception {
+    StringCatcher target = new StringCatcher();
+    EventHandler registered = handler(target);
+    set.add(registered);
+
+    assertSame(registered, set.get(handler(target)));
+    assertNull(set.get(handler(new StringCatcher())));
+  }
+
+  @Test public void iteratorSeesSetAsOfItsCreation() throws Exception {
+    List<EventHandler> handlers = handlers(3);
+    set.addAll(handlers.subList(0, 2));
+    Iterator<EventHandler> iterator = set.iterator();
+
+    set.add(handlers.get(2));
+    set.remove(handlers.get(0));
+
+    assertSame(handlers.get(0), iterator.next());
+    assertSame(handlers.get(1), iterator.next());
+    assertFalse(iterator.hasNext());
+  }
+
+  @Test public void churnWithManyHandlers() throws Exception {
+    List<EventHandler> handlers = handlers(HANDLER_COUNT);
+    set.addAll(handlers);
+    for (EventHandler handler : handlers.subList(0, HANDLER_COUNT / 2)) {
+      set.remove(handler);
+    }
+
+    assertEquals(handlers.subList(HANDLER_COUNT / 2, HANDLER_COUNT), Arrays.asList(set.snapshot()));
+    set.clear();
+    assertTrue(set.isEmpty());
+  }
+
+  private static List<EventHandler> handlers(int count) throws NoSuchMethodException {
+    List<EventHandler> handlers = new ArrayList<EventHandler>();
+    for (int i = 0; i < count; i++) {
+      handlers.add(handler(new StringCatcher()));
+    }
+    return handlers;
+  }
+
+  private static EventHandler handler(Object target) throws NoSuchMethodException {
+    Method method = StringCatcher.class.getMethod("hereHaveAString", String.class);
+    return new EventHandler(target, method);
+  }
+
+  private static EventHandler handler(Object target, int priority) throws NoSuchMethodException {
+    Method method = StringCatcher.class.getMethod("hereHaveAString", String.class);
+    return new EventHandler(target, method, new ReflectiveInvoker(method), ThreadMode.POSTING, priority);
+  }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2015 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.otto;
+
+/** Mimics the output of the annotation processor for {@link IndexedStringCatcher}. */
+public final class IndexedStringCatcher$$ListenerDispatcher<T extends IndexedStringCatcher>
+    implements ListenerDispatcher<T>, ListenerIndex {
+  static int handled;
+  static int indexed;
+
+  @Override public int subscriberIndex(String methodName, Class<?> eventType) {
+    if ("hereHaveAString".equals(methodName) && eventType == String.class) {
+      return 0;
+    }
+    return -1;
+  }
+
+  @Override public int producerIndex(String methodName) {
+    if ("produceDouble".equals(methodName)) {
+      return 0;
+    }
+    return -1;
+  }
+
+  @Override public void handleEvent(T listener, int subscriber, Object event) throws Throwable {
+    switch (subscriber) {
+      case 0:
+        handled++;
+        listener.hereHaveAString((String) event);
+        return;
+      default:
+        throw new IllegalArgumentException("Unknown subscriber " + subscriber);
+    }
+  }
+
+  @Override public Object produceEvent(T listener, int producer) throws Throwable {
+    switch (producer) {
+      case 0:
+        return listener.produceDouble();
+      default:
+        throw new IllegalArgumentException("Unknown producer " + producer);
+    }
+  }
+
+  @Override public ListenerIndex.Subscriber[] subscribers() {
+    indexed++;
+    return new ListenerIndex.Subscriber[] {
+        new ListenerIndex.Subscriber("hereHaveAString", String.class, ThreadMode.POSTING, 1),
+    };
+  }
+
+  @Override public ListenerIndex.Producer[] producers() {
+    return new ListenerIndex.Producer[] {
+        new ListenerIndex.Producer("produceDouble", Double.class, false, false),
+    };
+  }
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright (C) 2015 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.otto;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A listener with a hand-written {@link ListenerDispatcher} which also implements {@link ListenerIndex}, standing in
+ * for one generated by the annotation processor.
+ */
+public class IndexedStringCatcher {
+  final List<String> events = new ArrayList<String>();
+
+  @Subscribe(priority = 1) public void hereHaveAString(String string) {
+    events.add(string);
+  }
+
+  @Produce public Double produceDouble() {
+    return 2.0d;
+  }
+}
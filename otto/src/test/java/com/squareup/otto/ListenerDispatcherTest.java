@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2015 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.squareup.otto;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import org.junit.Before;
+import org.junit.Test;
+
+import static junit.framework.Assert.assertEquals;
+
+public class ListenerDispatcherTest {
+  private Bus bus;
+
+  @Before public void setUp() {
+    bus = new Bus(ThreadEnforcer.ANY);
+    DispatchedStringCatcher$$ListenerDispatcher.handled = 0;
+    DispatchedStringCatcher$$ListenerDispatcher.produced = 0;
+    IndexedStringCatcher$$ListenerDispatcher.handled = 0;
+  }
+
+  @Test public void generatedDispatcherDeliversEvents() {
+    DispatchedStringCatcher catcher = new DispatchedStringCatcher();
+    bus.register(catcher);
+
+    bus.post("Hello");
+    bus.post("World");
+
+    assertEquals(Arrays.<Object>asList("Hello", "World"), catcher.events);
+    assertEquals(2, DispatchedStringCatcher$$ListenerDispatcher.handled);
+  }
+
+  @Test public void unknownMethodsFallBackToReflection() {
+    DispatchedStringCatcher catcher = new DispatchedStringCatcher();
+    bus.register(catcher);
+
+    bus.post(42);
+
+    assertEquals(Arrays.<Object>asList(42), catcher.events);
+    assertEquals(0, DispatchedStringCatcher$$ListenerDispatcher.handled);
+  }
+
+  @Test public void generatedDispatcherProducesEvents() {
+    final Object[] produced = new Object[1];
+    bus.register(new Object() {
+      @Subscribe public void hereHaveADouble(Double value) {
+        produced[0] = value;
+      }
+    });
+    bus.register(new DispatchedStringCatcher());
+
+    assertEquals(1.0d, produced[0]);
+    assertEquals(1, DispatchedStringCatcher$$ListenerDispatcher.produced);
+  }
+
+  @Test public void generatedIndexDescribesHandlersAndProducers() {
+    final Object[] produced = new Object[1];
+    bus.register(new Object() {
+      @Subscribe public void hereHaveADouble(Double value) {
+        produced[0] = value;
+      }
+    });
+    IndexedStringCatcher catcher = new IndexedStringCatcher();
+    bus.register(catcher);
+
+    bus.post("Hello");
+
+    assertEquals(2.0d, produced[0]);
+    assertEquals(Arrays.asList("Hello"), catcher.events);
+    assertEquals(1, IndexedStringCatcher$$ListenerDispatcher.handled);
+    assertEquals(1, bus.getDispatchPlan(String.class).handlers[0].priority);
+  }
+
+  @Test public void indexedHandlersEqualReflectiveOnes() throws NoSuchMethodException {
+    IndexedStringCatcher catcher = new IndexedStringCatcher();
+    bus.register(catcher);
+
+    Method method = IndexedStringCatcher.class.getMethod("hereHaveAString", String.class);
+    assertEquals(new EventHandler(catcher, method), bus.getDispatchPlan(String.class).handlers[0]);
+  }
+
+  @Test public void generatedIndexIsReadOncePerClass() {
+    bus.register(new IndexedStringCatcher());
+    int reads = IndexedStringCatcher$$ListenerDispatcher.indexed;
+    new Bus(ThreadEnforcer.ANY).register(new IndexedStringCatcher());
+
+    assertEquals(reads, IndexedStringCatcher$$ListenerDispatcher.indexed);
+  }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2015 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.otto;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PriorityTest {
+  private final List<String> calls = new ArrayList<String>();
+  private Bus bus;
+
+  @Before public void setUp() {
+    bus = new Bus(ThreadEnforcer.ANY, "test-bus");
+  }
+
+  @Test public void higherPriorityHandlersRunFirst() {
+    bus.register(new LowRecorder("low"));
+    bus.register(new Recorder("default"));
+    bus.register(new HighRecorder("high"));
+
+    bus.post("event");
+
+    assertEquals(Arrays.asList("high", "default", "low"), calls);
+  }
+
+  @Test public void equalPrioritiesKeepRegistrationOrder() {
+    bus.register(new Recorder("first"));
+    bus.register(new Recorder("second"));
+    bus.register(new HighRecorder("urgent"));
+    bus.register(new Recorder("third"));
+
+    bus.post("event");
+
+    assertEquals(Arrays.asList("urgent", "first", "second", "third"), calls);
+  }
+
+  @Test public void priorityOrderSpansTypeHierarchy() {
+    bus.register(new Recorder("string"));
+    bus.register(new Object() {
+      @Subscribe(priority = 5) public void onObject(Object event) {
+        calls.add("object");
+      }
+    });
+
+    bus.post("event");
+
+    assertEquals(Arrays.asList("object", "string"), calls);
+  }
+
+  @Test public void cancelStopsLowerPriorityHandlers() {
+    bus.register(new Recorder("low"));
+    bus.register(new Object() {
+      @Subscribe(priority = 1) public void validate(String event) {
+        calls.add("validator");
+        bus.cancelEventDelivery(event);
+      }
+    });
+
+    bus.post("first");
+    bus.post("second");
+
+    assertEquals(Arrays.asList("validator", "validator"), calls);
+  }
+
+  @Test public void cancelOfQueuedEventSkipsOnlyThatPost() {
+    bus.register(new Recorder("low"));
+    bus.register(new Object() {
+      @Subscribe(priority = 1) public void validate(String event) {
+        calls.add("validator " + event);
+        if (event.equals("rejected")) {
+          bus.cancelEventDelivery(event);
+          bus.post("accepted");
+        }
+      }
+    });
+    bus.register(new Object() {
+      @Subscribe public void trigger(Integer event) {
+        bus.post("rejected");
+        bus.post("queued");
+      }
+    });
+
+    bus.post(1);
+
+    assertEquals(Arrays.asList("validator rejected", "validator queued", "low", "validator accepted", "low"), calls);
+  }
+
+  @Test public void cancelOutsideHandlerFails() {
+    try {
+      bus.cancelEventDelivery("event");
+      fail();
+    } catch (IllegalStateException expected) {
+    }
+  }
+
+  @Test public void cancelOfAnotherEventFails() {
+    bus.register(new Object() {
+      @Subscribe public void onString(String event) {
+        bus.cancelEventDelivery("some other event");
+      }
+    });
+    try {
+      bus.post("event");
+      fail();
+    } catch (RuntimeException expected) {
+      assertTrue(expected.getCause() instanceof IllegalStateException);
+    }
+  }
+
+  /** Records its name whenever it receives a string. */
+  public class Recorder {
+    private final String name;
+
+    Recorder(String name) {
+      this.name = name;
+    }
+
+    @Subscribe public void onString(String event) {
+      calls.add(name);
+    }
+  }
+
+  public class HighRecorder {
+    private final String name;
+
+    HighRecorder(String name) {
+      this.name = name;
+    }
+
+    @Subscribe(priority = 10) public void onString(String event) {
+      calls.add(name);
+    }
+  }
+
+  public class LowRecorder {
+    private final String name;
+
+    LowRecorder(String name) {
+      this.name = name;
+    }
+
+    @Subscribe(priority = -1) public void onString(String event) {
+      calls.add(name);
+    }
+  }
+}
@@ -24,6 +24,7 @@ import java.util.List;
 
 import static junit.framework.Assert.assertEquals;
 import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
 
 /**
  * Validate that {@link Bus} behaves carefully when listeners publish
@@ -83,6 +84,102 @@ public class ReentrantEventsTest {
         Arrays.<Object>asList(FIRST, SECOND), recorder.eventsReceived);
   }
 
+  @Test public void eventsLeftByThrowingHandlerAreDeliveredFirst() {
+    bus.register(new Object() {
+      @Subscribe public void listenForStrings(String event) {
+        bus.post(SECOND);
+        throw new IllegalStateException("Boom");
+      }
+    });
+    EventRecorder recorder = new EventRecorder();
+    bus.register(recorder);
+
+    try {
+      bus.post(FIRST);
+      fail();
+    } catch (RuntimeException expected) {
+    }
+    recorder.eventsReceived.clear();
+
+    bus.post(3);
+
+    assertEquals("Queued event must be delivered before the next one",
+        Arrays.<Object>asList(SECOND, 3), recorder.eventsReceived);
+  }
+
+  @Test public void reentrantConflatableEventsCollapse() {
+    bus.register(new Object() {
+      @Subscribe public void listenForStrings(String event) {
+        for (int i = 0; i < 5; i++) {
+          bus.post(new Snapshot("progress", i));
+        }
+      }
+    });
+    EventRecorder recorder = new EventRecorder();
+    bus.register(recorder);
+
+    bus.post(FIRST);
+
+    assertEquals("Only the latest queued snapshot should be delivered",
+        "[one, progress=4]", recorder.eventsReceived.toString());
+  }
+
+  @Test public void overriddenQueueHooksSeeEveryPost() {
+    final CountingBus countingBus = new CountingBus();
+    final List<Object> received = new ArrayList<Object>();
+    countingBus.register(new Object() {
+      @Subscribe public void listenForStrings(String event) {
+        received.add(event);
+        countingBus.post(SECOND);
+        received.add("after " + event);
+      }
+
+      @Subscribe public void listenForDoubles(Double event) {
+        received.add(event);
+      }
+    });
+
+    countingBus.post(FIRST);
+
+    assertEquals(Arrays.<Object>asList(FIRST, "after " + FIRST, SECOND), received);
+    assertEquals(2, countingBus.enqueued);
+  }
+
+  @Test public void overriddenQueueHooksKeepCancellation() {
+    final CountingBus countingBus = new CountingBus();
+    final List<Object> received = new ArrayList<Object>();
+    countingBus.register(new Object() {
+      @Subscribe(priority = 1) public void cancel(String event) {
+        received.add("canceled " + event);
+        countingBus.cancelEventDelivery(event);
+      }
+    });
+    countingBus.register(new Object() {
+      @Subscribe public void listenForStrings(String event) {
+        received.add(event);
+      }
+    });
+
+    countingBus.post(FIRST);
+    countingBus.postAll(Arrays.asList("two"));
+
+    assertEquals(Arrays.<Object>asList("canceled " + FIRST, "canceled two"), received);
+    assertEquals(4, countingBus.enqueued);
+  }
+
+  static class CountingBus extends Bus {
+    int enqueued;
+
+    CountingBus() {
+      super(ThreadEnforcer.ANY);
+    }
+
+    @Override protected void enqueueEvent(Object event, EventHandler handler) {
+      enqueued++;
+      super.enqueueEvent(event, handler);
+    }
+  }
+
   public class EventProcessor {
     @Subscribe public void listenForStrings(String event) {
       bus.post(SECOND);
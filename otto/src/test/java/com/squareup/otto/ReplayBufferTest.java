@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2015 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.otto;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ReplayBufferTest {
+  private Bus bus;
+
+  @Before public void setUp() {
+    bus = new Bus(ThreadEnforcer.ANY);
+  }
+
+  @Test public void lateHandlerReceivesLastEventsInOrder() {
+    bus.enableReplay(String.class, 3);
+    bus.post("one");
+    bus.post("two");
+    bus.post("three");
+    bus.post("four");
+
+    StringCatcher late = new StringCatcher();
+    bus.register(late);
+
+    assertEquals(Arrays.asList("two", "three", "four"), late.getEvents());
+  }
+
+  @Test public void eventsWithoutHandlersAreRecorded() {
+    bus.enableReplay(String.class, 2);
+    DeadEventCatcher dead = new DeadEventCatcher();
+    bus.register(dead);
+
+    bus.postAll(Arrays.asList("a", "b"));
+    StringCatcher late = new StringCatcher();
+    bus.register(late);
+
+    assertEquals(2, dead.events.size());
+    assertEquals(Arrays.asList("a", "b"), late.getEvents());
+  }
+
+  @Test public void registerAllReplaysToEachHandler() {
+    bus.enableReplay(String.class, 2);
+    bus.post("replayed");
+    StringCatcher first = new StringCatcher();
+    StringCatcher second = new StringCatcher();
+
+    bus.registerAll(Arrays.asList(first, second));
+
+    assertEquals(Arrays.asList("replayed"), first.getEvents());
+    assertEquals(Arrays.asList("replayed"), second.getEvents());
+  }
+
+  @Test public void replayComesBeforeStickyEvent() {
+    bus.enableReplay(String.class, 2);
+    bus.post("history");
+    bus.postSticky("current");
+    StringCatcher late = new StringCatcher();
+
+    bus.register(late);
+
+    assertEquals(Arrays.asList("history", "current", "current"), late.getEvents());
+  }
+
+  @Test public void subclassEventsAreRecordedForSupertype() {
+    bus.enableReplay(Number.class, 2);
+    bus.post(1);
+    bus.post(2L);
+    bus.post("ignored");
+
+    NumberCatcher late = new NumberCatcher();
+    bus.register(late);
+
+    assertEquals(Arrays.<Number>asList(1, 2L), late.events);
+  }
+
+  @Test public void typesWithoutReplayAreNotRecorded() {
+    bus.enableReplay(Integer.class, 1);
+    bus.post("not kept");
+
+    assertSame(Bus.DispatchPlan.NO_REPLAYS, bus.getDispatchPlan(String.class).replays);
+    StringCatcher late = new StringCatcher();
+    bus.register(late);
+    assertTrue(late.getEvents().isEmpty());
+  }
+
+  @Test public void resizingKeepsMostRecentEvents() {
+    bus.enableReplay(String.class, 3);
+    bus.post("one");
+    bus.post("two");
+    bus.post("three");
+    bus.enableReplay(String.class, 2);
+    bus.post("four");
+
+    StringCatcher late = new StringCatcher();
+    bus.register(late);
+
+    assertEquals(Arrays.asList("three", "four"), late.getEvents());
+  }
+
+  @Test public void resizingKeepsTheSameBuffer() {
+    bus.enableReplay(String.class, 1);
+    bus.post("one");
+    ReplayBuffer[] cached = bus.getDispatchPlan(String.class).replays;
+    bus.enableReplay(String.class, 2);
+
+    assertSame(cached[0], bus.getDispatchPlan(String.class).replays[0]);
+    bus.post("two");
+    assertEquals(Arrays.asList("one", "two"), Arrays.asList(cached[0].toArray()));
+  }
+
+  @Test public void disabledReplayIsDiscarded() {
+    bus.enableReplay(String.class, 2);
+    bus.post("gone");
+    bus.disableReplay(String.class);
+    bus.post("unrecorded");
+
+    StringCatcher late = new StringCatcher();
+    bus.register(late);
+
+    assertTrue(late.getEvents().isEmpty());
+  }
+
+  @Test public void sizeMustBePositive() {
+    try {
+      bus.enableReplay(String.class, 0);
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+
+  public static class NumberCatcher {
+    final List<Number> events = new ArrayList<Number>();
+
+    @Subscribe public void onNumber(Number number) {
+      events.add(number);
+    }
+  }
+
+  public static class DeadEventCatcher {
+    final List<DeadEvent> events = new ArrayList<DeadEvent>();
+
+    @Subscribe public void onDeadEvent(DeadEvent event) {
+      events.add(event);
+    }
+  }
+}
@@ -0,0 +1,247 @@
+/*
+ * Copyright (C) 2015 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.squareup.otto;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RingBufferBusTest {
+  private static final int BUFFER_SIZE = 8;
+  private static final int EVENT_COUNT = 10000;
+  private static final long TIMEOUT_SECONDS = 10;
+  private static final int GC_ATTEMPTS = 50;
+
+  private RingBufferBus bus;
+
+  @After public void tearDown() throws Exception {
+    if (bus != null) {
+      bus.shutdown();
+      assertTrue(bus.awaitTermination(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    }
+  }
+
+  @Test public void busySpinDeliversEveryEventInOrder() throws Exception {
+    // Spinning threads starve each other when they outnumber the cores, so keep the poster from ever waiting.
+    assertDeliversInOrder(WaitStrategy.BUSY_SPIN, Integer.highestOneBit(EVENT_COUNT) * 2, 1);
+  }
+
+  @Test public void yieldDeliversEveryEventInOrder() throws Exception {
+    assertDeliversInOrder(WaitStrategy.YIELD, BUFFER_SIZE, 2);
+  }
+
+  @Test public void parkDeliversEveryEventInOrder() throws Exception {
+    assertDeliversInOrder(WaitStrategy.PARK, BUFFER_SIZE, 2);
+  }
+
+  private void assertDeliversInOrder(WaitStrategy waitStrategy, int bufferSize, int consumerCount) throws Exception {
+    bus = new RingBufferBus(bufferSize, consumerCount, waitStrategy);
+    IntegerRecorder first = new IntegerRecorder();
+    IntegerRecorder second = new IntegerRecorder();
+    IntegerRecorder third = new IntegerRecorder();
+    bus.register(first);
+    bus.register(second);
+    bus.register(third);
+
+    for (int i = 0; i < EVENT_COUNT; i++) {
+      bus.post(i);
+    }
+    assertTrue(bus.awaitQuiescence(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+    first.assertReceivedInOrder();
+    second.assertReceivedInOrder();
+    third.assertReceivedInOrder();
+  }
+
+  @Test public void handlersRunOnConsumerThreads() throws Exception {
+    bus = new RingBufferBus(BUFFER_SIZE, 1, WaitStrategy.YIELD);
+    final AtomicReference<Thread> thread = new AtomicReference<Thread>();
+    bus.register(new Object() {
+      @Subscribe public void onString(String event) {
+        thread.set(Thread.currentThread());
+      }
+    });
+
+    bus.post("hello");
+    assertTrue(bus.awaitQuiescence(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+    assertNotSame(Thread.currentThread(), thread.get());
+    assertTrue(thread.get().getName().startsWith("Otto-RingBuffer-"));
+  }
+
+  @Test public void throwingHandlerDoesNotStopConsumer() throws Exception {
+    bus = new RingBufferBus(BUFFER_SIZE, 1, WaitStrategy.YIELD);
+    final List<Throwable> uncaught = Collections.synchronizedList(new ArrayList<Throwable>());
+    final List<String> received = Collections.synchronizedList(new ArrayList<String>());
+    bus.register(new Object() {
+      @Subscribe public void onString(String event) {
+        Thread.currentThread().setUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+          @Override public void uncaughtException(Thread thread, Throwable e) {
+            uncaught.add(e);
+          }
+        });
+        received.add(event);
+        if ("boom".equals(event)) {
+          throw new IllegalStateException(event);
+        }
+      }
+    });
+
+    bus.post("boom");
+    bus.post("after");
+    assertTrue(bus.awaitQuiescence(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+    assertEquals(2, received.size());
+    assertEquals(1, uncaught.size());
+  }
+
+  @Test public void onlyOneThreadMayPost() throws Exception {
+    bus = new RingBufferBus(BUFFER_SIZE, 1, WaitStrategy.YIELD);
+    bus.register(new IntegerRecorder());
+    bus.post(1);
+
+    final AtomicReference<RuntimeException> failure = new AtomicReference<RuntimeException>();
+    Thread other = new Thread(new Runnable() {
+      @Override public void run() {
+        try {
+          bus.post(2);
+        } catch (RuntimeException e) {
+          failure.set(e);
+        }
+      }
+    });
+    other.start();
+    other.join();
+
+    assertTrue(failure.get() instanceof IllegalStateException);
+  }
+
+  @Test public void shutdownDeliversPublishedEventsAndRejectsNewOnes() throws Exception {
+    bus = new RingBufferBus(BUFFER_SIZE, 1, WaitStrategy.PARK);
+    final CountDownLatch release = new CountDownLatch(1);
+    final List<Integer> received = Collections.synchronizedList(new ArrayList<Integer>());
+    bus.register(new Object() {
+      @Subscribe public void onInteger(Integer event) throws InterruptedException {
+        release.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        received.add(event);
+      }
+    });
+
+    bus.post(1);
+    bus.post(2);
+    bus.shutdown();
+    try {
+      bus.post(3);
+      fail("Should not accept events after shutdown.");
+    } catch (IllegalStateException expected) {
+    }
+    assertFalse(bus.awaitTermination(0, TimeUnit.SECONDS));
+
+    release.countDown();
+    assertTrue(bus.awaitTermination(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    assertEquals(2, received.size());
+  }
+
+  @Test public void postRacingShutdownIsDeliveredOrRejected() throws Exception {
+    bus = new RingBufferBus(BUFFER_SIZE, 2, WaitStrategy.YIELD);
+    final AtomicInteger received = new AtomicInteger();
+    bus.register(new Object() {
+      @Subscribe public void onInteger(Integer event) {
+        received.incrementAndGet();
+      }
+    });
+    final AtomicInteger accepted = new AtomicInteger();
+    Thread poster = new Thread(new Runnable() {
+      @Override public void run() {
+        try {
+          for (int i = 0; i < EVENT_COUNT; i++) {
+            bus.post(i);
+            accepted.incrementAndGet();
+          }
+        } catch (IllegalStateException shutDown) {
+          // Expected once the bus is shut down.
+        }
+      }
+    });
+    poster.start();
+    Thread.sleep(1);
+    bus.shutdown();
+    poster.join();
+
+    assertTrue(bus.awaitTermination(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    assertEquals(accepted.get(), received.get());
+  }
+
+  @Test public void deliveredSlotsDoNotRetainEvents() throws Exception {
+    bus = new RingBufferBus(BUFFER_SIZE, 1, WaitStrategy.PARK);
+    bus.register(new Object() {
+      @Subscribe public void onObject(Object event) {
+      }
+    });
+    WeakReference<Object> event = postShortLivedEvent();
+    assertTrue(bus.awaitQuiescence(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+    for (int i = 0; i < GC_ATTEMPTS && event.get() != null; i++) {
+      System.gc();
+      Thread.sleep(10);
+    }
+    assertNull("Delivered event should not be retained.", event.get());
+  }
+
+  private WeakReference<Object> postShortLivedEvent() {
+    Object event = new Object();
+    bus.post(event);
+    return new WeakReference<Object>(event);
+  }
+
+  @Test public void bufferSizeMustBePowerOfTwo() {
+    try {
+      new RingBufferBus(BUFFER_SIZE + 1, 1, WaitStrategy.YIELD);
+      fail("Should reject buffer sizes which are not a power of two.");
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+
+  public static class IntegerRecorder {
+    final List<Integer> received = new ArrayList<Integer>();
+
+    @Subscribe public void onInteger(Integer event) {
+      received.add(event);
+    }
+
+    void assertReceivedInOrder() {
+      assertEquals(EVENT_COUNT, received.size());
+      for (int i = 0; i < EVENT_COUNT; i++) {
+        assertEquals(Integer.valueOf(i), received.get(i));
+      }
+    }
+  }
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright (C) 2015 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.squareup.otto;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ShardedBusTest {
+  private static final int SHARD_COUNT = 4;
+  private static final int EVENT_COUNT = 2000;
+  private static final long TIMEOUT_SECONDS = 10;
+  private static final int SHUTDOWN_RACES = 20;
+
+  private ShardedBus bus;
+
+  @Before public void setUp() {
+    bus = new ShardedBus(ThreadEnforcer.ANY, "test-bus", SHARD_COUNT);
+  }
+
+  @After public void tearDown() throws Exception {
+    bus.shutdown();
+    assertTrue(bus.awaitTermination(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+  }
+
+  @Test public void eachSubscriberSeesEventsOfEveryTypeInPostOrder() throws Exception {
+    List<MixedRecorder> recorders = new ArrayList<MixedRecorder>();
+    for (int i = 0; i < SHARD_COUNT * 2; i++) {
+      MixedRecorder recorder = new MixedRecorder();
+      recorders.add(recorder);
+      bus.register(recorder);
+    }
+
+    for (int i = 0; i < EVENT_COUNT; i++) {
+      bus.post(i);
+      bus.post(String.valueOf(i));
+    }
+    assertTrue(bus.awaitQuiescence(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+    for (MixedRecorder recorder : recorders) {
+      assertEquals(EVENT_COUNT * 2, recorder.received.size());
+      for (int i = 0; i < EVENT_COUNT; i++) {
+        assertEquals(i, recorder.received.get(i * 2));
+        assertEquals(String.valueOf(i), recorder.received.get(i * 2 + 1));
+      }
+    }
+  }
+
+  @Test public void subscribersOnDifferentShardsRunInParallel() throws Exception {
+    final CountDownLatch bothRunning = new CountDownLatch(2);
+    LatchedSubscriber first = new LatchedSubscriber(bothRunning);
+    LatchedSubscriber second = new LatchedSubscriber(bothRunning);
+    while (owner(second) == owner(first)) {
+      second = new LatchedSubscriber(bothRunning);
+    }
+    bus.register(first);
+    bus.register(second);
+
+    bus.post("hello");
+
+    assertTrue(bothRunning.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    assertTrue(bus.awaitQuiescence(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+  }
+
+  @Test public void quiescenceIncludesEventsPostedByHandlers() throws Exception {
+    final AtomicInteger integers = new AtomicInteger();
+    for (int i = 0; i < SHARD_COUNT * 2; i++) {
+      bus.register(new Object() {
+        @Subscribe public void onString(String event) {
+          bus.post(event.length());
+        }
+
+        @Subscribe public void onInteger(Integer event) {
+          integers.incrementAndGet();
+        }
+      });
+    }
+
+    for (int i = 0; i < EVENT_COUNT; i++) {
+      bus.post("event");
+    }
+    assertTrue(bus.awaitQuiescence(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+    int subscribers = SHARD_COUNT * 2;
+    assertEquals(EVENT_COUNT * subscribers * subscribers, integers.get());
+  }
+
+  @Test public void throwingHandlerDoesNotStopShard() throws Exception {
+    final List<Throwable> uncaught = Collections.synchronizedList(new ArrayList<Throwable>());
+    final List<String> received = Collections.synchronizedList(new ArrayList<String>());
+    bus.register(new Object() {
+      @Subscribe public void onString(String event) {
+        Thread.currentThread().setUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+          @Override public void uncaughtException(Thread thread, Throwable e) {
+            uncaught.add(e);
+          }
+        });
+        received.add(event);
+        if ("boom".equals(event)) {
+          throw new IllegalStateException(event);
+        }
+      }
+    });
+
+    bus.post("boom");
+    bus.post("after");
+    assertTrue(bus.awaitQuiescence(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+    assertEquals(2, received.size());
+    assertEquals(1, uncaught.size());
+  }
+
+  @Test public void shutdownDeliversPostedEventsAndRejectsNewOnes() throws Exception {
+    final CountDownLatch release = new CountDownLatch(1);
+    final AtomicInteger received = new AtomicInteger();
+    bus.register(new Object() {
+      @Subscribe public void onString(String event) throws InterruptedException {
+        release.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        received.incrementAndGet();
+      }
+    });
+
+    bus.post("one");
+    bus.post("two");
+    bus.shutdown();
+    try {
+      bus.post("three");
+      fail("Should not accept events after shutdown.");
+    } catch (IllegalStateException expected) {
+    }
+    assertFalse(bus.awaitTermination(0, TimeUnit.SECONDS));
+
+    release.countDown();
+    assertTrue(bus.awaitTermination(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    assertEquals(2, received.get());
+  }
+
+  @Test public void postRacingShutdownIsDeliveredOrRejected() throws Exception {
+    for (int round = 0; round < SHUTDOWN_RACES; round++) {
+      final ShardedBus racingBus = new ShardedBus(ThreadEnforcer.ANY, "racing-bus", SHARD_COUNT);
+      final AtomicInteger received = new AtomicInteger();
+      racingBus.register(new Object() {
+        @Subscribe public void onInteger(Integer event) {
+          received.incrementAndGet();
+        }
+      });
+      final AtomicInteger accepted = new AtomicInteger();
+      Thread poster = new Thread(new Runnable() {
+        @Override public void run() {
+          try {
+            for (int i = 0; i < EVENT_COUNT; i++) {
+              racingBus.post(i);
+              accepted.incrementAndGet();
+            }
+          } catch (IllegalStateException shutDown) {
+            // Expected once the bus is shut down.
+          }
+        }
+      });
+      poster.start();
+      Thread.yield();
+      racingBus.shutdown();
+      poster.join();
+
+      assertTrue(racingBus.awaitTermination(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+      assertEquals(accepted.get(), received.get());
+    }
+  }
+
+  private static int owner(Object subscriber) {
+    return (System.identityHashCode(subscriber) & Integer.MAX_VALUE) % SHARD_COUNT;
+  }
+
+  public static class MixedRecorder {
+    final List<Object> received = new ArrayList<Object>();
+
+    @Subscribe public void onInteger(Integer event) {
+      received.add(event);
+    }
+
+    @Subscribe public void onString(String event) {
+      received.add(event);
+    }
+  }
+
+  public static class LatchedSubscriber {
+    private final CountDownLatch latch;
+
+    LatchedSubscriber(CountDownLatch latch) {
+      this.latch = latch;
+    }
+
+    @Subscribe public void onString(String event) throws InterruptedException {
+      latch.countDown();
+      latch.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+  }
+}
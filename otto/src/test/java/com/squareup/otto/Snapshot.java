@@ -0,0 +1,36 @@
+/*
+ * Copyright (C) 2015 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.squareup.otto;
+
+/** A conflatable test event describing the state of {@link #key}. */
+public class Snapshot implements Conflatable {
+  final Object key;
+  final int value;
+
+  Snapshot(Object key, int value) {
+    this.key = key;
+    this.value = value;
+  }
+
+  @Override public Object conflationKey() {
+    return key;
+  }
+
+  @Override public String toString() {
+    return key + "=" + value;
+  }
+}
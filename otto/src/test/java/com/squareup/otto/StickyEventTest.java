@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2015 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.otto;
+
+import java.util.Arrays;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class StickyEventTest {
+  private Bus bus;
+
+  @Before public void setUp() {
+    bus = new Bus(ThreadEnforcer.ANY, "test-bus", null, null, 2);
+  }
+
+  @Test public void stickyEventIsPostedAndReplayedToLaterHandlers() {
+    StringCatcher early = new StringCatcher();
+    bus.register(early);
+
+    bus.postSticky("first");
+    bus.postSticky("latest");
+    StringCatcher late = new StringCatcher();
+    bus.register(late);
+
+    assertEquals(Arrays.asList("first", "latest"), early.getEvents());
+    assertEquals(Arrays.asList("latest"), late.getEvents());
+    assertEquals("latest", bus.getStickyEvent(String.class));
+  }
+
+  @Test public void registerAllReplaysStickyEvent() {
+    bus.postSticky("sticky");
+    StringCatcher first = new StringCatcher();
+    StringCatcher second = new StringCatcher();
+
+    bus.registerAll(Arrays.asList(first, second));
+
+    assertEquals(Arrays.asList("sticky"), first.getEvents());
+    assertEquals(Arrays.asList("sticky"), second.getEvents());
+  }
+
+  @Test public void removedStickyEventIsNotReplayed() {
+    bus.postSticky("sticky");
+
+    assertEquals("sticky", bus.removeStickyEvent(String.class));
+    StringCatcher catcher = new StringCatcher();
+    bus.register(catcher);
+
+    assertTrue(catcher.getEvents().isEmpty());
+    assertNull(bus.removeStickyEvent(String.class));
+  }
+
+  @Test public void leastRecentlyUsedTypeIsEvicted() {
+    Integer number = 1;
+    Long big = 2L;
+    bus.postSticky("string");
+    bus.postSticky(number);
+    bus.getStickyEvent(String.class);
+
+    bus.postSticky(big);
+
+    assertEquals("string", bus.getStickyEvent(String.class));
+    assertNull(bus.getStickyEvent(Integer.class));
+    assertSame(big, bus.getStickyEvent(Long.class));
+  }
+
+  @Test public void removeAllStickyEventsClearsCache() {
+    bus.postSticky("string");
+    bus.postSticky(1);
+
+    bus.removeAllStickyEvents();
+
+    assertNull(bus.getStickyEvent(String.class));
+    assertNull(bus.getStickyEvent(Integer.class));
+  }
+
+  @Test public void nonPositiveCapacityIsRejected() {
+    try {
+      new Bus(ThreadEnforcer.ANY, "test-bus", null, null, 0);
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+}
@@ -58,4 +58,15 @@ public class ThreadEnforcerTest {
     assertTrue(enforcer.called);
   }
 
+  @Test public void enforcerCalledForReplayChanges() {
+    RecordingThreadEnforcer enforcer = new RecordingThreadEnforcer();
+    Bus bus = new Bus(enforcer);
+
+    bus.enableReplay(String.class, 1);
+    assertTrue(enforcer.called);
+    enforcer.called = false;
+    bus.disableReplay(String.class);
+    assertTrue(enforcer.called);
+  }
+
 }
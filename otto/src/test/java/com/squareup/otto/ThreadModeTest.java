@@ -0,0 +1,254 @@
+/*
+ * Copyright (C) 2015 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.squareup.otto;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ThreadModeTest {
+  private static final int EVENT_COUNT = 500;
+  private static final long TIMEOUT_SECONDS = 10;
+
+  private final QueueingExecutor mainThread = new QueueingExecutor();
+  private ExecutorService background;
+  private Bus bus;
+
+  @Before public void setUp() {
+    background = Executors.newFixedThreadPool(4);
+    bus = new Bus(ThreadEnforcer.ANY, "test-bus", mainThread, background);
+  }
+
+  @After public void tearDown() {
+    background.shutdownNow();
+  }
+
+  @Test public void postingHandlerRunsBeforePostReturns() {
+    ModeCatcher catcher = new ModeCatcher();
+    bus.register(catcher);
+
+    bus.post("hello");
+
+    assertEquals(1, catcher.posting.size());
+    assertSame(Thread.currentThread(), catcher.posting.get(0));
+  }
+
+  @Test public void mainHandlerRunsOnMainThreadExecutor() {
+    ModeCatcher catcher = new ModeCatcher();
+    bus.register(catcher);
+
+    bus.post("hello");
+    assertTrue(catcher.main.isEmpty());
+    assertEquals(1, mainThread.tasks.size());
+
+    mainThread.runAll();
+    assertEquals(1, catcher.main.size());
+  }
+
+  @Test public void mainHandlerAlwaysQueuesOnPlainExecutor() {
+    ModeCatcher catcher = new ModeCatcher();
+    bus.register(catcher);
+    bus.post("hello");
+    // The queueing executor runs tasks on this thread, but a plain executor cannot say which thread is main.
+    mainThread.runAll();
+
+    bus.post("again");
+
+    assertEquals(1, mainThread.tasks.size());
+    assertEquals(1, catcher.main.size());
+  }
+
+  @Test public void mainHandlerRunsDirectlyWhenPostedOnMainThread() {
+    MainQueueingExecutor main = new MainQueueingExecutor();
+    main.onMainThread = true;
+    Bus mainBus = new Bus(ThreadEnforcer.ANY, "main-bus", main, background);
+    ModeCatcher catcher = new ModeCatcher();
+    mainBus.register(catcher);
+
+    mainBus.post("hello");
+
+    assertTrue(main.tasks.isEmpty());
+    assertEquals(1, catcher.main.size());
+    assertSame(Thread.currentThread(), catcher.main.get(0));
+  }
+
+  @Test public void mainHandlerWaitsBehindEventsQueuedFromOtherThreads() {
+    MainQueueingExecutor main = new MainQueueingExecutor();
+    Bus mainBus = new Bus(ThreadEnforcer.ANY, "main-bus", main, background);
+    final List<String> received = new ArrayList<String>();
+    mainBus.register(new Object() {
+      @Subscribe(threadMode = ThreadMode.MAIN) public void onString(String event) {
+        received.add(event);
+      }
+    });
+
+    mainBus.post("off main");
+    main.onMainThread = true;
+    mainBus.post("on main");
+    assertTrue(received.isEmpty());
+
+    main.runAll();
+    assertEquals(Arrays.asList("off main", "on main"), received);
+    mainBus.post("drained");
+    assertEquals(Arrays.asList("off main", "on main", "drained"), received);
+  }
+
+  @Test public void unregisteredMainHandlerIsSkipped() {
+    ModeCatcher catcher = new ModeCatcher();
+    bus.register(catcher);
+
+    bus.post("hello");
+    bus.unregister(catcher);
+    mainThread.runAll();
+
+    assertTrue(catcher.main.isEmpty());
+  }
+
+  @Test public void mainHandlerRequiresMainThreadExecutor() {
+    Bus noMain = new Bus(ThreadEnforcer.ANY, "no-main", null, background);
+    try {
+      noMain.register(new ModeCatcher());
+      fail("Should reject handlers which need a main thread.");
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+
+  @Test public void asyncHandlerRunsOnBackgroundExecutor() throws Exception {
+    final CountDownLatch received = new CountDownLatch(1);
+    final List<Thread> threads = Collections.synchronizedList(new ArrayList<Thread>());
+    bus.register(new Object() {
+      @Subscribe(threadMode = ThreadMode.ASYNC) public void onString(String event) {
+        threads.add(Thread.currentThread());
+        received.countDown();
+      }
+    });
+
+    bus.post("hello");
+
+    assertTrue(received.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    assertTrue(threads.get(0) != Thread.currentThread());
+  }
+
+  @Test public void backgroundHandlersRunInPostOrder() throws Exception {
+    final CountDownLatch received = new CountDownLatch(EVENT_COUNT);
+    final List<Integer> events = Collections.synchronizedList(new ArrayList<Integer>());
+    bus.register(new Object() {
+      @Subscribe(threadMode = ThreadMode.BACKGROUND) public void onInteger(Integer event) {
+        events.add(event);
+        received.countDown();
+      }
+    });
+
+    for (int i = 0; i < EVENT_COUNT; i++) {
+      bus.post(i);
+    }
+
+    assertTrue(received.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    for (int i = 0; i < EVENT_COUNT; i++) {
+      assertEquals(Integer.valueOf(i), events.get(i));
+    }
+  }
+
+  @Test public void slowBackgroundSubscriberDoesNotStallOthers() throws Exception {
+    final CountDownLatch release = new CountDownLatch(1);
+    final CountDownLatch received = new CountDownLatch(1);
+    bus.register(new Object() {
+      @Subscribe(threadMode = ThreadMode.BACKGROUND) public void onString(String event) {
+        try {
+          release.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          // Shut down by tearDown.
+        }
+      }
+    });
+    bus.register(new Object() {
+      @Subscribe(threadMode = ThreadMode.BACKGROUND) public void onString(String event) {
+        received.countDown();
+      }
+    });
+
+    bus.post("hello");
+
+    try {
+      assertTrue(received.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    } finally {
+      release.countDown();
+    }
+  }
+
+  @Test public void producedEventsFollowThreadMode() {
+    bus.register(new StringProducer());
+    ModeCatcher catcher = new ModeCatcher();
+    bus.register(catcher);
+
+    assertEquals(1, catcher.posting.size());
+    assertTrue(catcher.main.isEmpty());
+    mainThread.runAll();
+    assertEquals(1, catcher.main.size());
+  }
+
+  public static class ModeCatcher {
+    final List<Thread> posting = new ArrayList<Thread>();
+    final List<Thread> main = new ArrayList<Thread>();
+
+    @Subscribe public void onPosting(String event) {
+      posting.add(Thread.currentThread());
+    }
+
+    @Subscribe(threadMode = ThreadMode.MAIN) public void onMain(String event) {
+      main.add(Thread.currentThread());
+    }
+  }
+
+  /** A {@link QueueingExecutor} which says whether the caller is on the main thread as the test sets it. */
+  static class MainQueueingExecutor extends QueueingExecutor implements MainThreadExecutor {
+    boolean onMainThread;
+
+    @Override public boolean isMainThread() {
+      return onMainThread;
+    }
+  }
+
+  /** Stands in for a main thread: tasks run when the test says so. */
+  static class QueueingExecutor implements Executor {
+    final List<Runnable> tasks = new ArrayList<Runnable>();
+
+    @Override public void execute(Runnable command) {
+      tasks.add(command);
+    }
+
+    void runAll() {
+      while (!tasks.isEmpty()) {
+        tasks.remove(0).run();
+      }
+    }
+  }
+}
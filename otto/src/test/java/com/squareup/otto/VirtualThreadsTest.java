@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2015 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.squareup.otto;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class VirtualThreadsTest {
+  private static final int EVENT_COUNT = 200;
+  private static final long TIMEOUT_SECONDS = 10;
+
+  @Test public void executorRunsTasksOnVirtualThreadsWhenSupported() throws Exception {
+    final AtomicReference<Thread> thread = new AtomicReference<Thread>();
+    final CountDownLatch ran = new CountDownLatch(1);
+    VirtualThreads.newExecutor().execute(new Runnable() {
+      @Override public void run() {
+        thread.set(Thread.currentThread());
+        ran.countDown();
+      }
+    });
+
+    assertTrue(ran.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    assertNotSame(Thread.currentThread(), thread.get());
+    assertEquals(VirtualThreads.isSupported(), isVirtual(thread.get()));
+    assertTrue(thread.get().isDaemon());
+  }
+
+  @Test public void sharedExecutorIsReused() {
+    assertSame(VirtualThreads.executor(), VirtualThreads.executor());
+  }
+
+  @Test public void virtualHandlerRunsOffThePostingThread() throws Exception {
+    final AtomicReference<Thread> thread = new AtomicReference<Thread>();
+    final CountDownLatch received = new CountDownLatch(1);
+    Bus bus = new Bus(ThreadEnforcer.ANY);
+    bus.register(new Object() {
+      @Subscribe(threadMode = ThreadMode.VIRTUAL) public void onString(String event) {
+        thread.set(Thread.currentThread());
+        received.countDown();
+      }
+    });
+
+    bus.post("hello");
+
+    assertTrue(received.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    assertNotSame(Thread.currentThread(), thread.get());
+    assertEquals(VirtualThreads.isSupported(), isVirtual(thread.get()));
+  }
+
+  @Test public void asyncBusMailboxesKeepOrderOnVirtualThreads() throws Exception {
+    final List<Integer> events = Collections.synchronizedList(new ArrayList<Integer>());
+    AsyncBus bus = new AsyncBus(VirtualThreads.newExecutor());
+    bus.register(new Object() {
+      @Subscribe public void onInteger(Integer event) {
+        events.add(event);
+      }
+    });
+
+    for (int i = 0; i < EVENT_COUNT; i++) {
+      bus.post(i);
+    }
+    assertTrue(bus.awaitQuiescence(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+    assertEquals(EVENT_COUNT, events.size());
+    for (int i = 0; i < EVENT_COUNT; i++) {
+      assertEquals(Integer.valueOf(i), events.get(i));
+    }
+  }
+
+  private static boolean isVirtual(Thread thread) throws Exception {
+    Method isVirtual;
+    try {
+      isVirtual = Thread.class.getMethod("isVirtual");
+    } catch (NoSuchMethodException e) {
+      return false;
+    }
+    return (Boolean) isVirtual.invoke(thread);
+  }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2015 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.otto;
+
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class WeakRegistrationTest {
+  private static final String EVENT = "Hello";
+  private static final int GC_ATTEMPTS = 50;
+
+  private Bus bus;
+
+  @Before public void setUp() {
+    bus = new Bus(ThreadEnforcer.ANY, "test-bus");
+  }
+
+  @Test public void weaklyRegisteredSubscriberReceivesEvents() {
+    StringCatcher catcher = new StringCatcher();
+    Registration registration = bus.registerWeakly(catcher);
+
+    bus.post(EVENT);
+
+    assertEquals(Arrays.asList(EVENT), catcher.getEvents());
+    assertSame(catcher, registration.getTarget());
+  }
+
+  @Test public void collectedSubscriberIsPurgedOnPost() throws InterruptedException {
+    WeakReference<StringCatcher> catcher = registerShortLivedCatcher();
+    awaitCollection(catcher);
+
+    for (int i = 0; i < GC_ATTEMPTS && !bus.getHandlersForEventType(String.class).isEmpty(); i++) {
+      bus.post(EVENT);
+      Thread.sleep(10);
+    }
+
+    assertTrue(bus.getHandlersForEventType(String.class).isEmpty());
+  }
+
+  @Test public void collectedProducerMakesRoomForAnother() throws InterruptedException {
+    WeakReference<StringProducer> producer = registerShortLivedProducer();
+    awaitCollection(producer);
+
+    bus.register(new StringProducer());
+    StringCatcher catcher = new StringCatcher();
+    bus.register(catcher);
+
+    assertEquals(Arrays.asList(StringProducer.VALUE), catcher.getEvents());
+  }
+
+  @Test public void weaklyRegisteredObjectCanBeUnregistered() {
+    StringCatcher first = new StringCatcher();
+    StringCatcher second = new StringCatcher();
+    Registration registration = bus.registerWeakly(first);
+    bus.registerWeakly(second);
+
+    registration.unregister();
+    bus.unregister(second);
+    bus.post(EVENT);
+
+    assertFalse(registration.isRegistered());
+    assertTrue(first.getEvents().isEmpty());
+    assertTrue(second.getEvents().isEmpty());
+  }
+
+  @Test public void registeringStronglyAndWeaklyFails() {
+    StringCatcher catcher = new StringCatcher();
+    bus.registerWeakly(catcher);
+    try {
+      bus.registerWeakly(catcher);
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+    try {
+      bus.register(catcher);
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+
+    StringCatcher strong = new StringCatcher();
+    bus.register(strong);
+    try {
+      bus.registerWeakly(strong);
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+
+  @Test public void registerAllRejectsWeaklyRegisteredObject() {
+    StringCatcher weak = new StringCatcher();
+    bus.registerWeakly(weak);
+    StringProducer producer = new StringProducer();
+
+    try {
+      bus.registerAll(Arrays.asList(producer, weak));
+      fail();
+    } catch (IllegalArgumentException e) {
+      assertEquals("Object already registered.", e.getMessage());
+    }
+
+    assertEquals(1, bus.getHandlersForEventType(String.class).size());
+    assertNull(bus.getProducerForEventType(String.class));
+  }
+
+  private WeakReference<StringCatcher> registerShortLivedCatcher() {
+    StringCatcher catcher = new StringCatcher();
+    bus.registerWeakly(catcher);
+    bus.post(EVENT);
+    assertEquals(Arrays.asList(EVENT), catcher.getEvents());
+    return new WeakReference<StringCatcher>(catcher);
+  }
+
+  private WeakReference<StringProducer> registerShortLivedProducer() {
+    StringProducer producer = new StringProducer();
+    bus.registerWeakly(producer);
+    return new WeakReference<StringProducer>(producer);
+  }
+
+  private static void awaitCollection(WeakReference<?> reference) throws InterruptedException {
+    for (int i = 0; i < GC_ATTEMPTS && reference.get() != null; i++) {
+      System.gc();
+      Thread.sleep(10);
+    }
+    assertNull("Object should have been collected.", reference.get());
+  }
+}
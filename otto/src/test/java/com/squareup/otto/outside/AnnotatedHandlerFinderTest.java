@@ -31,7 +31,6 @@ import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.List;
 
-import static junit.framework.Assert.fail;
 import static org.fest.assertions.api.Assertions.assertThat;
 
 /**
@@ -188,21 +187,26 @@ public class AnnotatedHandlerFinderTest {
     }
   }
 
-  public static class FailsOnInterfaceSubscription {
+  public static class InterfaceSubscription {
 
     static class InterfaceSubscriber {
+      final List<Serializable> events = new ArrayList<Serializable>();
+
       @Subscribe public void whatever(Serializable thingy) {
-        // Do nothing.
+        events.add(thingy);
       }
     }
 
-    @Test public void subscribingToInterfacesFails() {
-      try {
-        new Bus(ThreadEnforcer.ANY).register(new InterfaceSubscriber());
-        fail("Annotation finder allowed subscription to illegal interface type.");
-      } catch (IllegalArgumentException expected) {
-        // Do nothing.
-      }
+    @Test public void subscribingToInterfacesReceivesImplementations() {
+      Bus bus = new Bus(ThreadEnforcer.ANY);
+      InterfaceSubscriber subscriber = new InterfaceSubscriber();
+      bus.register(subscriber);
+
+      bus.post("string");
+      bus.post(1);
+      bus.post(EVENT);
+
+      assertThat(subscriber.events).containsExactly("string", 1);
     }
   }
 